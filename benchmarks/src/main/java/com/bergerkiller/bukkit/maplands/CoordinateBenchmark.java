@@ -0,0 +1,110 @@
+package com.bergerkiller.bukkit.maplands;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.block.BlockFace;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.bergerkiller.bukkit.common.bases.IntVector3;
+
+/**
+ * Benchmarks the conversion between block, tile and screen coordinates
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoordinateBenchmark {
+    private static final int COUNT = 1024;
+
+    @Param({"NORTH_EAST", "SOUTH_WEST"})
+    public BlockFace facing;
+
+    @Param({"ZOOM8", "ZOOM32"})
+    public ZoomLevel zoom;
+
+    private final IntVector3[] tiles = new IntVector3[COUNT];
+    private final IntVector3[] blocks = new IntVector3[COUNT];
+    private final IntVector3[] screen = new IntVector3[COUNT];
+    private final double[] positions = new double[COUNT * 3];
+    private final double[] projected = new double[COUNT * 2];
+    private final MapProjection.Point point = new MapProjection.Point();
+    private MapProjection projection;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1234);
+        int n = 0;
+        while (n < COUNT) {
+            int tx = random.nextInt(80) - 40;
+            int ty = random.nextInt(80) - 40;
+            int tz = random.nextInt(400) - 200;
+            if (MapUtil.isTile(tx, ty, tz)) {
+                tiles[n] = new IntVector3(tx, ty, tz);
+                blocks[n] = MapUtil.screenTileToBlock(facing, tiles[n]);
+                screen[n] = zoom.tileToScreen(tiles[n]);
+                positions[n * 3] = blocks[n].x + random.nextDouble();
+                positions[n * 3 + 1] = blocks[n].y + random.nextDouble();
+                positions[n * 3 + 2] = blocks[n].z + random.nextDouble();
+                n++;
+            }
+        }
+        projection = new MapProjection(facing, zoom, 0, 0, 0, 256, 256);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void screenTileToBlock(Blackhole blackhole) {
+        for (IntVector3 tile : tiles) {
+            blackhole.consume(MapUtil.screenTileToBlock(facing, tile.x, tile.y, tile.z));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void blockToScreenTile(Blackhole blackhole) {
+        for (IntVector3 block : blocks) {
+            blackhole.consume(MapUtil.blockToScreenTile(facing, block.x, block.y, block.z));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void screenToTile(Blackhole blackhole) {
+        for (IntVector3 p : screen) {
+            blackhole.consume(zoom.screenToTile(p));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void project(Blackhole blackhole) {
+        for (int i = 0; i < positions.length; i += 3) {
+            projection.project(positions[i], positions[i + 1], positions[i + 2], point);
+            blackhole.consume(point.x);
+            blackhole.consume(point.y);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public double[] projectAll() {
+        projection.projectAll(positions, projected, COUNT);
+        return projected;
+    }
+}
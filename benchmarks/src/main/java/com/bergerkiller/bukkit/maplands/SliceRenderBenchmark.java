@@ -0,0 +1,86 @@
+package com.bergerkiller.bukkit.maplands;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.block.BlockFace;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bergerkiller.bukkit.common.map.MapTexture;
+import com.bergerkiller.bukkit.common.utils.CommonUtil;
+import com.bergerkiller.bukkit.maplands.MaplandsDisplay.DrawResult;
+import com.bergerkiller.bukkit.maplands.util.Linked2DTileSet;
+
+/**
+ * Benchmarks rendering an entire display, slice by slice, using the {@link MapSliceRenderer}
+ * that {@link MaplandsDisplay} renders with. Blocks come from a {@link SyntheticBlockSource}
+ * instead of a world, so only the rendering itself is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SliceRenderBenchmark {
+    private static final int START_Y = 64;
+    private static final int MIN_Y = 0;
+    private static final int MAX_Y = 256;
+
+    @Param({"ZOOM8", "ZOOM32"})
+    public ZoomLevel zoom;
+
+    @Param({"128"})
+    public int resolution;
+
+    private final BlockFace facing = BlockFace.NORTH_EAST;
+    private SyntheticBlockSource source;
+    private MapTexture canvas;
+    private MapSliceRenderer renderer;
+    private Linked2DTileSet tiles;
+
+    static {
+        CommonUtil.bootstrap();
+    }
+
+    @Setup
+    public void setup() {
+        source = new SyntheticBlockSource("benchmark", 1234L);
+        canvas = MapTexture.createEmpty(resolution, resolution);
+        renderer = new MapSliceRenderer(MapRenderStats.create()) {
+            @Override
+            protected boolean cacheBlock(int x, int z) {
+                return true; // Synthetic blocks are always available
+            }
+        };
+        renderer.setView(canvas, source, facing, zoom, 0, START_Y, 0, MIN_Y, MAX_Y);
+        tiles = new Linked2DTileSet(renderer.getMinColumn(), renderer.getMaxColumn(),
+                                    renderer.getMinRow(), renderer.getMaxRow());
+    }
+
+    @Benchmark
+    public MapTexture renderAllSlices() {
+        // Start from scratch, like a display that renders everything again
+        renderer.setView(canvas, source, facing, zoom, 0, START_Y, 0, MIN_Y, MAX_Y);
+        renderer.setFingerprints(new MapSectionFingerprints(source.getName(), renderer.getBlockBounds()));
+        canvas.setRelativeBrushMask(null);
+        canvas.clearDepthBuffer();
+        canvas.setRelativeBrushMask(renderer.getSprites().getBrushTexture());
+        tiles.setAll();
+        for (int depth = renderer.getMinimumRenderZ(); depth <= renderer.getMaximumRenderZ(); depth++) {
+            if (renderer.renderSlice(tiles, depth, Long.MAX_VALUE) == DrawResult.FULLY_DRAWN) {
+                break;
+            }
+        }
+        return canvas;
+    }
+}
@@ -0,0 +1,63 @@
+package com.bergerkiller.bukkit.maplands;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bergerkiller.bukkit.common.utils.CommonUtil;
+import com.bergerkiller.bukkit.common.wrappers.BlockData;
+import com.bergerkiller.bukkit.common.wrappers.BlockRenderOptions;
+
+/**
+ * Benchmarks rasterizing isometric block sprites, and looking up sprites that
+ * were already rasterized before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpriteBenchmark {
+    @Param({"ZOOM8", "ZOOM32", "ZOOM64"})
+    public ZoomLevel zoom;
+
+    @Param({"STONE", "GRASS_BLOCK", "OAK_LEAVES", "BIRCH_LOG"})
+    public Material material;
+
+    private IsometricBlockSprites sprites;
+    private BlockRenderOptions options;
+
+    static {
+        CommonUtil.bootstrap();
+    }
+
+    @Setup
+    public void setup() {
+        sprites = IsometricBlockSprites.getSprites(BlockFace.NORTH_EAST, zoom);
+        options = BlockData.fromMaterial(material).getDefaultRenderOptions();
+        sprites.getSprite(options);
+    }
+
+    @Benchmark
+    public IsometricBlockSprites.Sprite renderSprite() {
+        return sprites.renderSprite(options);
+    }
+
+    @Benchmark
+    public IsometricBlockSprites.Sprite getCachedSprite() {
+        return sprites.getSprite(options);
+    }
+}
@@ -0,0 +1,77 @@
+package com.bergerkiller.bukkit.maplands;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bergerkiller.bukkit.maplands.util.Linked2DTile;
+import com.bergerkiller.bukkit.maplands.util.Linked2DTileList;
+import com.bergerkiller.bukkit.maplands.util.Linked2DTileSet;
+
+/**
+ * Benchmarks setting, clearing and iterating the tiles of a {@link Linked2DTileSet}
+ * the size of the tile set of a display.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TileSetBenchmark {
+    /** Number of columns/rows of a 128x128 display at zoom 8 and 32, and a 1024x1024 display at zoom 8 */
+    @Param({"11", "35", "131"})
+    public int size;
+
+    private Linked2DTileSet set;
+
+    @Setup
+    public void setup() {
+        set = new Linked2DTileSet(-size, size, -size, size);
+        set.setAll();
+    }
+
+    @Benchmark
+    public Linked2DTileSet setAll() {
+        set.setAll();
+        return set;
+    }
+
+    @Benchmark
+    public Linked2DTileSet clearAndSetEach() {
+        for (int y = -size; y <= size; y++) {
+            for (int x = -size; x <= size; x++) {
+                set.clear(x, y);
+            }
+        }
+        for (int y = -size; y <= size; y++) {
+            for (int x = -size; x <= size; x++) {
+                set.set(x, y);
+            }
+        }
+        return set;
+    }
+
+    @Benchmark
+    public int iterateAllDepths() {
+        int sum = 0;
+        for (int depth = 0; depth < 3; depth++) {
+            Linked2DTileList list = set.getValidTiles(depth);
+            Linked2DTile current = list.head;
+            while ((current = current.next) != list.tail) {
+                sum += current.x + current.y;
+            }
+        }
+        return sum;
+    }
+}
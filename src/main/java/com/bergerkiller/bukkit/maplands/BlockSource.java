@@ -0,0 +1,105 @@
+package com.bergerkiller.bukkit.maplands;
+
+import org.bukkit.World;
+
+import com.bergerkiller.bukkit.common.wrappers.BlockData;
+import com.bergerkiller.bukkit.common.wrappers.BlockRenderOptions;
+
+/**
+ * Provides the blocks a display renders. Normally this is a loaded world, see
+ * {@link #of(World)}, but it can also be generated in memory so that rendering
+ * can be tested without a server, see {@link SyntheticBlockSource}.
+ */
+public interface BlockSource {
+
+    /**
+     * Gets the name of this block source. For worlds this is the world name.
+     *
+     * @return name
+     */
+    String getName();
+
+    /**
+     * Gets the options used to select the sprite of a block
+     *
+     * @param x Block x-coordinate
+     * @param y Block y-coordinate
+     * @param z Block z-coordinate
+     * @return block render options
+     */
+    BlockRenderOptions getRenderOptions(int x, int y, int z);
+
+    /**
+     * Gets the block data of a block
+     *
+     * @param x Block x-coordinate
+     * @param y Block y-coordinate
+     * @param z Block z-coordinate
+     * @return block data
+     */
+    BlockData getBlockData(int x, int y, int z);
+
+    /**
+     * Gets the lowest y-coordinate at which this block source can have blocks
+     *
+     * @return minimum block y-coordinate (inclusive)
+     */
+    int getMinHeight();
+
+    /**
+     * Gets the y-coordinate above the highest y-coordinate at which this block
+     * source can have blocks
+     *
+     * @return maximum block y-coordinate (exclusive)
+     */
+    int getMaxHeight();
+
+    /**
+     * Gets the y-coordinate of the highest chunk section of a chunk that has blocks
+     * that are not air. The chunk must be loaded.
+     *
+     * @param cx Chunk x-coordinate
+     * @param cz Chunk z-coordinate
+     * @return highest section y-coordinate, below the section of {@link #getMinHeight()} if
+     *         the chunk is empty
+     */
+    int getHighestSectionY(int cx, int cz);
+
+    /**
+     * Starts loading a chunk, and keeps it loaded until the returned chunk is closed
+     *
+     * @param cx Chunk x-coordinate
+     * @param cz Chunk z-coordinate
+     * @return loading chunk
+     */
+    Chunk loadChunk(int cx, int cz);
+
+    /**
+     * Gets the block source of a loaded world
+     *
+     * @param world World
+     * @return block source reading the blocks of the world
+     */
+    public static BlockSource of(World world) {
+        return new WorldBlockSource(world);
+    }
+
+    /**
+     * A chunk that is kept loaded until closed
+     */
+    public static interface Chunk extends AutoCloseable {
+        int getX();
+
+        int getZ();
+
+        /**
+         * Gets whether the chunk has finished loading, and its blocks can be read
+         *
+         * @return True if loaded
+         */
+        boolean isLoaded();
+
+        @Override
+        void close();
+    }
+}
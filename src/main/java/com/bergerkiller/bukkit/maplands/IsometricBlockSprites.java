@@ -1,5 +1,6 @@
 package com.bergerkiller.bukkit.maplands;
 
+import java.awt.Color;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -13,6 +14,7 @@ import com.bergerkiller.bukkit.common.map.MapColorPalette;
 import com.bergerkiller.bukkit.common.map.MapTexture;
 import com.bergerkiller.bukkit.common.math.Matrix4x4;
 import com.bergerkiller.bukkit.common.math.Vector3;
+import com.bergerkiller.bukkit.common.utils.MathUtil;
 import com.bergerkiller.bukkit.common.wrappers.BlockData;
 import com.bergerkiller.bukkit.common.wrappers.BlockRenderOptions;
 
@@ -20,7 +22,12 @@ import com.bergerkiller.bukkit.common.wrappers.BlockRenderOptions;
  * Renders and caches isometric block sprites
  */
 public class IsometricBlockSprites {
+    /** Fluid deeper than this number of blocks is drawn with the same, darkest deep fluid sprite */
+    public static final int MAX_FLUID_DEPTH = 16;
     private final HashMap<BlockRenderOptions, Sprite> spriteCache = new HashMap<BlockRenderOptions, Sprite>();
+    private final HashMap<BlockData, Boolean> occludingCache = new HashMap<BlockData, Boolean>();
+    private final HashMap<BlockData, Boolean> waterCache = new HashMap<BlockData, Boolean>();
+    private final HashMap<Sprite, Sprite[]> opaqueCache = new HashMap<Sprite, Sprite[]>();
     private final BlockFace facing;
     private final ZoomLevel zoom;
     private final Matrix4x4 transform;
@@ -63,7 +70,155 @@ public class IsometricBlockSprites {
         return spriteCache.computeIfAbsent(options, this::renderSprite);
     }
 
-    private Sprite renderSprite(BlockRenderOptions options) {
+    /**
+     * Gets the sprite for block render options, and records whether the sprite
+     * was already cached
+     *
+     * @param options Block render options
+     * @param stats Statistics to record the cache lookup in
+     * @return sprite texture
+     */
+    public Sprite getSprite(BlockRenderOptions options, MapRenderStats stats) {
+        Sprite sprite = spriteCache.get(options);
+        if (sprite == null) {
+            sprite = renderSprite(options);
+            spriteCache.put(options, sprite);
+            stats.addSpriteCacheLookup(false);
+        } else {
+            stats.addSpriteCacheLookup(true);
+        }
+        return sprite;
+    }
+
+    /**
+     * Gets whether a block always hides what is behind it. This is the case for solid
+     * full blocks whose sprite is fully opaque. Unlike {@link Sprite#isFullyOpaque},
+     * this does not depend on the blocks around it, so it does not require the
+     * block render options.
+     *
+     * @param blockData Block data
+     * @return True if the block hides the blocks behind it
+     */
+    public boolean isOccluding(BlockData blockData) {
+        Boolean occluding = occludingCache.get(blockData);
+        if (occluding == null) {
+            occluding = Boolean.valueOf(blockData.getType().isOccluding() &&
+                                        getSprite(blockData.getDefaultRenderOptions()).isFullyOpaque);
+            occludingCache.put(blockData, occluding);
+        }
+        return occluding.booleanValue();
+    }
+
+    /**
+     * Gets whether a block is filled with water. Besides water itself, this is the case
+     * for waterlogged blocks and for the plants that only grow underwater.
+     *
+     * @param blockData Block data
+     * @return True if the block is filled with water
+     */
+    public boolean isWater(BlockData blockData) {
+        Boolean water = waterCache.get(blockData);
+        if (water == null) {
+            Material type = blockData.getType();
+            water = Boolean.valueOf(type == Material.WATER ||
+                                    type == Material.KELP ||
+                                    type == Material.KELP_PLANT ||
+                                    type == Material.SEAGRASS ||
+                                    type == Material.TALL_SEAGRASS ||
+                                    type == Material.BUBBLE_COLUMN ||
+                                    "true".equals(blockData.getDefaultRenderOptions().get("waterlogged")));
+            waterCache.put(blockData, water);
+        }
+        return water.booleanValue();
+    }
+
+    /**
+     * Gets the sprite drawn for a see-through fluid, such as water, when it is too deep to
+     * see the blocks below it. The see-through pixels of the fluid sprite are filled with
+     * its average color, so the sprite is fully opaque and nothing behind it has to be drawn.
+     * The deeper the fluid, the darker the sprite.
+     *
+     * @param sprite Sprite of the fluid block
+     * @param depth Number of fluid blocks in the column, starting at the fluid block
+     * @return deep fluid sprite, or the same sprite if it has no colors to fill with
+     */
+    public Sprite getDeepFluidSprite(Sprite sprite, int depth) {
+        return getOpaqueSprite(sprite, MathUtil.clamp(depth, 1, MAX_FLUID_DEPTH));
+    }
+
+    /**
+     * Gets a fully opaque version of a see-through sprite, with the see-through pixels
+     * filled with the average color of the sprite. Drawn when nothing behind the
+     * block should be drawn anymore.
+     *
+     * @param sprite See-through sprite
+     * @return opaque sprite, or the same sprite if it has no colors to fill with
+     */
+    public Sprite getOpaqueSprite(Sprite sprite) {
+        return getOpaqueSprite(sprite, 0);
+    }
+
+    private Sprite getOpaqueSprite(Sprite sprite, int depth) {
+        Sprite[] sprites = opaqueCache.get(sprite);
+        if (sprites == null) {
+            sprites = new Sprite[MAX_FLUID_DEPTH + 1];
+            opaqueCache.put(sprite, sprites);
+        }
+        Sprite opaqueSprite = sprites[depth];
+        if (opaqueSprite == null) {
+            opaqueSprite = renderOpaqueSprite(sprite, depth);
+            sprites[depth] = opaqueSprite;
+        }
+        return opaqueSprite;
+    }
+
+    private Sprite renderOpaqueSprite(Sprite sprite, int depth) {
+        byte[] texture_buffer = sprite.texture.getBuffer();
+        byte[] mask_buffer = this.zoom.getMask().getBuffer();
+        int len = this.width * this.height;
+
+        // Average color of the sprite
+        int r = 0, g = 0, b = 0, count = 0;
+        for (int i = 0; i < len; i++) {
+            if (mask_buffer[i] != 0 && !MapColorPalette.isTransparent(texture_buffer[i])) {
+                Color c = MapColorPalette.getRealColor(texture_buffer[i]);
+                r += c.getRed();
+                g += c.getGreen();
+                b += c.getBlue();
+                count++;
+            }
+        }
+        if (count == 0) {
+            return sprite;
+        }
+        Color average = new Color(r / count, g / count, b / count);
+
+        // Fill the see-through pixels and darken it all, down to half the brightness
+        float brightness = 1.0f - 0.5f * (float) depth / (float) MAX_FLUID_DEPTH;
+        MapTexture texture = MapTexture.createEmpty(this.width, this.height);
+        for (int y = 0; y < this.height; y++) {
+            for (int x = 0; x < this.width; x++) {
+                int i = y * this.width + x;
+                if (mask_buffer[i] != 0) {
+                    Color c = MapColorPalette.isTransparent(texture_buffer[i]) ?
+                            average : MapColorPalette.getRealColor(texture_buffer[i]);
+                    texture.writePixel(x, y, MapColorPalette.getColor((int) (c.getRed() * brightness),
+                                                                      (int) (c.getGreen() * brightness),
+                                                                      (int) (c.getBlue() * brightness)));
+                }
+            }
+        }
+        return new Sprite(texture, true);
+    }
+
+    /**
+     * Renders the sprite of a block without caching it. Only used directly by the benchmarks.
+     *
+     * @param options Block render options
+     * @return rendered sprite
+     */
+    Sprite renderSprite(BlockRenderOptions options) {
+        Object event = MaplandsEvents.beginSpriteRender();
         MapTexture texture = MapTexture.createEmpty(this.width, this.height);
 
         //map.fill(MapColorPalette.COLOR_RED);
@@ -83,6 +238,7 @@ public class IsometricBlockSprites {
             }
         }
 
+        MaplandsEvents.endSpriteRender(event, this.zoom, this.facing, options);
         return new Sprite(texture, isFullyOpaque);
     }
 
@@ -115,6 +271,19 @@ public class IsometricBlockSprites {
         return sprites;
     }
 
+    /**
+     * Gets the total number of sprites cached for all zoom levels and rotations
+     *
+     * @return cached sprite count
+     */
+    public static int getCachedSpriteCount() {
+        int count = 0;
+        for (IsometricBlockSprites sprites : instances) {
+            count += sprites.spriteCache.size();
+        }
+        return count;
+    }
+
     /**
      * A single isometric block sprite. Stores the texture,
      * and metadata about the sprite which might be helpful
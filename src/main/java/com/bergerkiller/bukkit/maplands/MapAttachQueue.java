@@ -0,0 +1,146 @@
+package com.bergerkiller.bukkit.maplands;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import com.bergerkiller.bukkit.common.Task;
+
+/**
+ * Staggers the start of rendering of displays that attach at the same time, such as
+ * all the framed maps in the chunks loaded after a restart. Displays are queued when
+ * attached or woken up, and every tick only a limited number of them load from the cache
+ * and start rendering. Displays held by a player go first, then displays that are viewed,
+ * in the order they were queued. Displays that nobody views stay queued until they are.<br>
+ * <br>
+ * Every priority has its own queue. Queued displays move between them with {@link #update(MaplandsDisplay)}
+ * as they are held or viewed, so that every tick only the displays admitted are looked at.
+ */
+public final class MapAttachQueue {
+    private static final int PRIORITY_HELD = 2;
+    private static final int PRIORITY_VIEWED = 1;
+    private static final int PRIORITY_NONE = 0;
+    private final int maxPerTick;
+    @SuppressWarnings("unchecked")
+    private final LinkedHashSet<MaplandsDisplay>[] queues = new LinkedHashSet[] {
+            new LinkedHashSet<MaplandsDisplay>(), // PRIORITY_NONE
+            new LinkedHashSet<MaplandsDisplay>(), // PRIORITY_VIEWED
+            new LinkedHashSet<MaplandsDisplay>()  // PRIORITY_HELD
+    };
+    private Task task = null;
+
+    /**
+     * Creates a new attach queue
+     *
+     * @param maxPerTick Maximum number of displays that start rendering every tick
+     */
+    public MapAttachQueue(int maxPerTick) {
+        this.maxPerTick = Math.max(1, maxPerTick);
+    }
+
+    /**
+     * Starts processing the queue every tick
+     *
+     * @param plugin Plugin to run the task with
+     */
+    public void start(JavaPlugin plugin) {
+        this.task = new Task(plugin) {
+            @Override
+            public void run() {
+                tick();
+            }
+        }.start(1, 1);
+    }
+
+    public void stop() {
+        Task.stop(this.task);
+        this.task = null;
+    }
+
+    /**
+     * Gets the number of displays waiting to start rendering
+     *
+     * @return queued display count
+     */
+    public int size() {
+        int size = 0;
+        for (LinkedHashSet<MaplandsDisplay> queue : this.queues) {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    /**
+     * Adds a display to the queue. It starts rendering once admitted.
+     *
+     * @param display Display to add
+     */
+    public void add(MaplandsDisplay display) {
+        for (LinkedHashSet<MaplandsDisplay> queue : this.queues) {
+            if (queue.contains(display)) {
+                return;
+            }
+        }
+        this.queues[getPriority(display)].add(display);
+    }
+
+    /**
+     * Moves a queued display to the queue of its current priority, after it became
+     * held or viewed, or nobody views it anymore. Called every tick while it is queued.
+     *
+     * @param display Display to update
+     */
+    public void update(MaplandsDisplay display) {
+        LinkedHashSet<MaplandsDisplay> current = this.queues[getPriority(display)];
+        if (current.contains(display)) {
+            return;
+        }
+        for (LinkedHashSet<MaplandsDisplay> queue : this.queues) {
+            if (queue.remove(display)) {
+                current.add(display);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes a display from the queue, if it is queued
+     *
+     * @param display Display to remove
+     */
+    public void remove(MaplandsDisplay display) {
+        for (LinkedHashSet<MaplandsDisplay> queue : this.queues) {
+            queue.remove(display);
+        }
+    }
+
+    private void tick() {
+        // Displays nobody views are not admitted, until update() moves them to another queue
+        int remaining = this.maxPerTick;
+        for (int priority = PRIORITY_HELD; priority > PRIORITY_NONE && remaining > 0; priority--) {
+            Iterator<MaplandsDisplay> iter = this.queues[priority].iterator();
+            while (iter.hasNext() && remaining > 0) {
+                MaplandsDisplay display = iter.next();
+                iter.remove();
+                if (display.isAttachPending()) {
+                    display.admitAttach();
+                    remaining--;
+                }
+            }
+        }
+    }
+
+    private static int getPriority(MaplandsDisplay display) {
+        if (!display.hasViewers()) {
+            return PRIORITY_NONE;
+        }
+        for (Player owner : display.getOwners()) {
+            if (display.isHolding(owner)) {
+                return PRIORITY_HELD;
+            }
+        }
+        return PRIORITY_VIEWED;
+    }
+}
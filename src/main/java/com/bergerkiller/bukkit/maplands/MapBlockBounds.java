@@ -1,6 +1,5 @@
 package com.bergerkiller.bukkit.maplands;
 
-import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 
 import com.bergerkiller.bukkit.common.bases.IntVector3;
@@ -14,6 +13,30 @@ public final class MapBlockBounds {
     private int min_x, min_y, min_z;
     private int max_x, max_y, max_z;
 
+    public int getMinX() {
+        return min_x;
+    }
+
+    public int getMinY() {
+        return min_y;
+    }
+
+    public int getMinZ() {
+        return min_z;
+    }
+
+    public int getMaxX() {
+        return max_x;
+    }
+
+    public int getMaxY() {
+        return max_y;
+    }
+
+    public int getMaxZ() {
+        return max_z;
+    }
+
     public boolean contains(int bx, int by, int bz) {
         return bx >= min_x && bx <= max_x &&
                by >= min_y && by <= max_y &&
@@ -97,13 +120,24 @@ public final class MapBlockBounds {
         }
     }
 
-    public void offset(Block startBlock) {
-        min_x += startBlock.getX();
-        min_y += startBlock.getY();
-        min_z += startBlock.getZ();
-        max_x += startBlock.getX();
-        max_y += startBlock.getY();
-        max_z += startBlock.getZ();
+    /**
+     * Limits the range of y-coordinates, for when only part of the height is rendered
+     *
+     * @param minY Minimum block y-coordinate (inclusive)
+     * @param maxY Maximum block y-coordinate (inclusive)
+     */
+    public void clampY(int minY, int maxY) {
+        min_y = Math.max(min_y, minY);
+        max_y = Math.min(max_y, maxY);
+    }
+
+    public void offset(int dx, int dy, int dz) {
+        min_x += dx;
+        min_y += dy;
+        min_z += dz;
+        max_x += dx;
+        max_y += dy;
+        max_z += dz;
     }
 
     // Creates an array that contains the first two and last two significant values in a range
@@ -11,7 +11,13 @@ import java.awt.image.DataBufferUShort;
 import java.awt.image.IndexColorModel;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map;
@@ -46,6 +52,7 @@ public class MapCanvasCache {
                     Item item = entry.getValue();
                     if (item.saved.compareAndSet(false, true)) {
                         UUID mapUUID = entry.getKey();
+                        Object event = MaplandsEvents.beginCacheSave();
 
                         savedSomething = true;
                         _cacheFolder.mkdirs();
@@ -63,11 +70,30 @@ public class MapCanvasCache {
                             _plugin.getLogger().log(Level.SEVERE, "Failed to save depth data of {" + mapUUID.toString() + "} to cache", e);
                             success = false;
                         }
+                        if (success && item.progress != null) {
+                            success &= writeData(mapUUID, "render progress", getProgressFile(mapUUID), item.progress::write);
+                        } else {
+                            getProgressFile(mapUUID).delete();
+                        }
+                        if (success && item.fingerprints != null) {
+                            success &= writeData(mapUUID, "section fingerprints", getFingerprintsFile(mapUUID), item.fingerprints::write);
+                        } else {
+                            getFingerprintsFile(mapUUID).delete();
+                        }
+                        if (success && item.seeThroughLayers != null) {
+                            success &= writeData(mapUUID, "see-through layers", getSeeThroughLayersFile(mapUUID), item.seeThroughLayers::write);
+                        } else {
+                            getSeeThroughLayersFile(mapUUID).delete();
+                        }
                         if (!success) {
                             // Cleanup
                             getColorFile(mapUUID).delete();
                             getDepthFile(mapUUID).delete();
+                            getProgressFile(mapUUID).delete();
+                            getFingerprintsFile(mapUUID).delete();
+                            getSeeThroughLayersFile(mapUUID).delete();
                         }
+                        MaplandsEvents.endCacheSave(event, mapUUID, true);
                     } else if (item.created < expireTime) {
                         iter.remove();
                     }
@@ -92,30 +118,63 @@ public class MapCanvasCache {
         _cacheFolder = cacheFolder;
     }
 
+    public boolean isEnabled() {
+        return _enabled;
+    }
+
     public void setEnabled(boolean enabled) {
         _enabled = enabled;
         if (!enabled) {
-            if (_saveTask.isRunning()) {
-                synchronized (_saveTask) {
-                    _saveTask.notify();
-                    _saveTask.stop();
-                }
-                _saveTask.waitFinished();
-            }
+            close();
             _cache.clear();
         }
     }
 
+    /**
+     * Waits for all pending data to be written to disk and stops the background
+     * save task. Called when the plugin disables.
+     */
+    public void close() {
+        if (_saveTask.isRunning()) {
+            synchronized (_saveTask) {
+                _saveTask.notify();
+                _saveTask.stop();
+            }
+            _saveTask.waitFinished();
+        }
+    }
+
     public void save(UUID mapUUID, MapCanvas canvas) {
+        save(mapUUID, canvas, null, null, null);
+    }
+
+    /**
+     * Saves the color and depth data of a canvas, together with the progress of rendering
+     * it. If the progress is null, the canvas is considered fully rendered.
+     *
+     * @param mapUUID UUID of the map
+     * @param canvas Canvas to save
+     * @param progress Render progress, null if rendering has finished
+     * @param fingerprints Fingerprints of the world contents rendered, null if not known
+     * @param seeThroughLayers See-through blocks counted while rendering, null if not limited
+     */
+    public void save(UUID mapUUID, MapCanvas canvas, MapRenderProgress progress, MapSectionFingerprints fingerprints,
+                     MapSeeThroughLayers seeThroughLayers)
+    {
         if (!_enabled) {
             return;
         }
+        Object event = MaplandsEvents.beginCacheSave();
         BufferedImage depthImage = depthToGrayscaleImage(canvas);
         if (depthImage == null) {
+            MaplandsEvents.endCacheSave(event, mapUUID, false);
             return;
         }
         synchronized (_saveTask) {
-            _cache.put(mapUUID, new Item(toJavaImageIndexed(canvas), depthImage));
+            _cache.put(mapUUID, new Item(toJavaImageIndexed(canvas), depthImage, progress,
+                    (fingerprints == null) ? null : new MapSectionFingerprints(fingerprints),
+                    (seeThroughLayers == null) ? null : new MapSeeThroughLayers(seeThroughLayers)));
+            MaplandsEvents.endCacheSave(event, mapUUID, false);
             _saveTask.notify();
             if (!_saveTask.isRunning()) {
                 _saveTask.start();
@@ -127,7 +186,14 @@ public class MapCanvasCache {
         if (!_enabled) {
             return false;
         }
+        Object event = MaplandsEvents.beginCacheLoad();
         Item item = _cache.get(mapUUID);
+        boolean success = loadItem(mapUUID, canvas, item);
+        MaplandsEvents.endCacheLoad(event, mapUUID, item == null, success);
+        return success;
+    }
+
+    private boolean loadItem(UUID mapUUID, MapCanvas canvas, Item item) {
         if (item == null) {
             // Load from disk (sync), is slower!
             // Do not put it in cache
@@ -154,7 +220,7 @@ public class MapCanvasCache {
                 _plugin.getLogger().log(Level.SEVERE, "Failed to load data of {" + mapUUID.toString() + "} from cache: image resolutions don't match!");
                 return false;
             }
-            item = new Item(color, depth);
+            item = new Item(color, depth, null, null, null);
         }
 
         // Verify the buffers are at all compatible. If the map was resized, ignore the data and regenerate.
@@ -185,6 +251,83 @@ public class MapCanvasCache {
         }
     }
 
+    /**
+     * Loads the render progress stored for a map in the cache. Should be called after
+     * {@link #load(UUID, MapCanvas)} succeeded.
+     *
+     * @param mapUUID UUID of the map
+     * @return render progress, or null if none was stored or rendering had finished
+     */
+    public MapRenderProgress loadProgress(UUID mapUUID) {
+        if (!_enabled) {
+            return null;
+        }
+        Item item = _cache.get(mapUUID);
+        if (item != null) {
+            return item.progress;
+        }
+
+        return readData(mapUUID, "render progress", getProgressFile(mapUUID), MapRenderProgress::read);
+    }
+
+    /**
+     * Loads the fingerprints of the world contents stored for a map in the cache. Should be
+     * called after {@link #load(UUID, MapCanvas)} succeeded.
+     *
+     * @param mapUUID UUID of the map
+     * @return section fingerprints, or null if none were stored
+     */
+    public MapSectionFingerprints loadFingerprints(UUID mapUUID) {
+        if (!_enabled) {
+            return null;
+        }
+        Item item = _cache.get(mapUUID);
+        if (item != null) {
+            return (item.fingerprints == null) ? null : new MapSectionFingerprints(item.fingerprints);
+        }
+        return readData(mapUUID, "section fingerprints", getFingerprintsFile(mapUUID), MapSectionFingerprints::read);
+    }
+
+    /**
+     * Loads the see-through blocks counted while rendering a map stored in the cache.
+     * Should be called after {@link #load(UUID, MapCanvas)} succeeded.
+     *
+     * @param mapUUID UUID of the map
+     * @return see-through layers, or null if none were stored
+     */
+    public MapSeeThroughLayers loadSeeThroughLayers(UUID mapUUID) {
+        if (!_enabled) {
+            return null;
+        }
+        Item item = _cache.get(mapUUID);
+        if (item != null) {
+            return (item.seeThroughLayers == null) ? null : new MapSeeThroughLayers(item.seeThroughLayers);
+        }
+        return readData(mapUUID, "see-through layers", getSeeThroughLayersFile(mapUUID), MapSeeThroughLayers::read);
+    }
+
+    private boolean writeData(UUID mapUUID, String what, File file, DataWriter writer) {
+        try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            writer.write(stream);
+            return true;
+        } catch (IOException e) {
+            _plugin.getLogger().log(Level.SEVERE, "Failed to save " + what + " of {" + mapUUID.toString() + "} to cache", e);
+            return false;
+        }
+    }
+
+    private <T> T readData(UUID mapUUID, String what, File file, DataReader<T> reader) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return reader.read(stream);
+        } catch (IOException e) {
+            _plugin.getLogger().log(Level.SEVERE, "Failed to load " + what + " of {" + mapUUID.toString() + "} from cache", e);
+            return null;
+        }
+    }
+
     private File getColorFile(UUID mapUUID) {
         return new File(_cacheFolder, mapUUID.toString() + "_color.gif");
     }
@@ -193,6 +336,18 @@ public class MapCanvasCache {
         return new File(_cacheFolder, mapUUID.toString() + "_depth.png");
     }
 
+    private File getProgressFile(UUID mapUUID) {
+        return new File(_cacheFolder, mapUUID.toString() + "_progress.dat");
+    }
+
+    private File getFingerprintsFile(UUID mapUUID) {
+        return new File(_cacheFolder, mapUUID.toString() + "_fingerprints.dat");
+    }
+
+    private File getSeeThroughLayersFile(UUID mapUUID) {
+        return new File(_cacheFolder, mapUUID.toString() + "_seethrough.dat");
+    }
+
     // Turns the depth buffer into a 16-bit grayscale image
     public static BufferedImage depthToGrayscaleImage(MapCanvas canvas) {
         short[] depth = canvas.getDepthBuffer();
@@ -253,14 +408,32 @@ public class MapCanvasCache {
     public static class Item {
         public final BufferedImage color;
         public final BufferedImage depth;
+        public final MapRenderProgress progress;
+        public final MapSectionFingerprints fingerprints;
+        public final MapSeeThroughLayers seeThroughLayers;
         public final long created;
         public final AtomicBoolean saved;
 
-        private Item(BufferedImage color, BufferedImage depth) {
+        private Item(BufferedImage color, BufferedImage depth, MapRenderProgress progress, MapSectionFingerprints fingerprints,
+                     MapSeeThroughLayers seeThroughLayers)
+        {
             this.color = color;
             this.depth = depth;
+            this.progress = progress;
+            this.fingerprints = fingerprints;
+            this.seeThroughLayers = seeThroughLayers;
             this.created = System.currentTimeMillis();
             this.saved = new AtomicBoolean(false);
         }
     }
+
+    @FunctionalInterface
+    private static interface DataWriter {
+        void write(DataOutputStream stream) throws IOException;
+    }
+
+    @FunctionalInterface
+    private static interface DataReader<T> {
+        T read(DataInputStream stream) throws IOException;
+    }
 }
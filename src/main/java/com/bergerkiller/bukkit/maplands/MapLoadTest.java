@@ -0,0 +1,139 @@
+package com.bergerkiller.bukkit.maplands;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+
+import com.bergerkiller.bukkit.common.Task;
+import com.bergerkiller.bukkit.common.wrappers.BlockData;
+
+/**
+ * Load test that makes all displays of a world render generated terrain instead of the
+ * blocks of the world, and changes a number of blocks every tick. The changes are spread
+ * randomly over the displays rendering the world, and are handled the same way as
+ * block changes in the world. Combined with /map stats this makes it possible to
+ * reproduce the load of a busy server with many displays on a local test server.
+ */
+public final class MapLoadTest {
+    private final World world;
+    private final SyntheticBlockSource source;
+    private final int changesPerTick;
+    private final Random random = new Random();
+    private final BlockData[] palette;
+    private final List<MaplandsDisplay> displays = new ArrayList<MaplandsDisplay>();
+    private final Task task;
+    private long ticks = 0;
+    private long changes = 0;
+
+    public MapLoadTest(Maplands plugin, World world, long seed, int changesPerTick) {
+        this.world = world;
+        this.source = new SyntheticBlockSource(world.getName(), seed);
+        this.changesPerTick = changesPerTick;
+        this.palette = new BlockData[] {
+                BlockData.fromMaterial(Material.AIR),
+                BlockData.fromMaterial(Material.STONE),
+                BlockData.fromMaterial(Material.WATER),
+                BlockData.fromMaterial(Material.GLASS),
+                BlockData.fromMaterial(Material.OAK_LEAVES)
+        };
+        this.task = new Task(plugin) {
+            @Override
+            public void run() {
+                tick();
+            }
+        };
+    }
+
+    public World getWorld() {
+        return this.world;
+    }
+
+    /**
+     * Gets the generated terrain displays render while this load test runs
+     *
+     * @return block source
+     */
+    public SyntheticBlockSource getSource() {
+        return this.source;
+    }
+
+    /**
+     * Starts the load test, re-rendering all displays of the world with the generated terrain
+     */
+    public void start() {
+        rerenderDisplays();
+        this.task.start(1, 1);
+    }
+
+    /**
+     * Stops the load test, re-rendering all displays of the world with the blocks of the world
+     */
+    public void stop() {
+        this.task.stop();
+        rerenderDisplays();
+    }
+
+    private void rerenderDisplays() {
+        for (MaplandsDisplay display : MaplandsDisplay.getAllDisplays()) {
+            if (display.isRenderingWorld(this.world)) {
+                display.renderAll();
+            }
+        }
+    }
+
+    private void tick() {
+        this.ticks++;
+
+        this.displays.clear();
+        for (MaplandsDisplay display : MaplandsDisplay.getAllDisplays()) {
+            if (display.isRenderingWorld(this.world) && display.getBlockSource() == this.source) {
+                this.displays.add(display);
+            }
+        }
+        if (this.displays.isEmpty()) {
+            return;
+        }
+
+        for (int i = 0; i < this.changesPerTick; i++) {
+            // Pick a random block near the terrain surface within view of a random display
+            MaplandsDisplay target = this.displays.get(this.random.nextInt(this.displays.size()));
+            MapBlockBounds bounds = target.getBlockBounds();
+            int bx = bounds.getMinX() + this.random.nextInt(bounds.getMaxX() - bounds.getMinX() + 1);
+            int bz = bounds.getMinZ() + this.random.nextInt(bounds.getMaxZ() - bounds.getMinZ() + 1);
+            int by = this.source.getTerrainHeight(bx, bz) + this.random.nextInt(5) - 2;
+            this.source.setBlock(bx, by, bz, this.palette[this.random.nextInt(this.palette.length)]);
+            this.changes++;
+
+            // Notify the displays the same way the listener does for real block changes
+            for (MaplandsDisplay display : this.displays) {
+                display.onBlockChange(this.world, bx+1, by, bz);
+                display.onBlockChange(this.world, bx, by+1, bz);
+                display.onBlockChange(this.world, bx, by, bz+1);
+                display.onBlockChange(this.world, bx-1, by, bz);
+                display.onBlockChange(this.world, bx, by-1, bz);
+                display.onBlockChange(this.world, bx, by, bz-1);
+                display.onBlockChange(this.world, bx, by, bz);
+            }
+        }
+    }
+
+    /**
+     * Sends the progress of this load test to a player or the console
+     *
+     * @param sender Recipient of the progress
+     */
+    public void sendStatus(CommandSender sender) {
+        sender.sendMessage(ChatColor.YELLOW + "Load test on world " + ChatColor.WHITE + this.world.getName() +
+                ChatColor.YELLOW + "  Displays: " + ChatColor.WHITE + this.displays.size() +
+                ChatColor.YELLOW + "  Changes/tick: " + ChatColor.WHITE + this.changesPerTick);
+        sender.sendMessage(ChatColor.YELLOW + "Ticks: " + ChatColor.WHITE + this.ticks +
+                ChatColor.YELLOW + "  Blocks changed: " + ChatColor.WHITE + this.changes +
+                ChatColor.YELLOW + "  Unique changed: " + ChatColor.WHITE + this.source.getChangeCount() +
+                ChatColor.YELLOW + "  Chunks loaded: " + ChatColor.WHITE + this.source.getLoadedChunkCount());
+    }
+}
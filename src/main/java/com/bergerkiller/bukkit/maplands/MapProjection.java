@@ -0,0 +1,135 @@
+package com.bergerkiller.bukkit.maplands;
+
+import org.bukkit.block.BlockFace;
+
+import com.bergerkiller.bukkit.common.bases.IntVector3;
+
+/**
+ * Projects world coordinates onto the pixel coordinates of a display. The isometric
+ * view turns block coordinates into tile coordinates linearly, so the projection
+ * is computed once for a view and then only needs a few multiplications per position.
+ * Positions are written into caller-supplied holders or arrays, so that many
+ * positions can be projected every tick without creating garbage.<br>
+ * <br>
+ * A projection is immutable. A new one is created every time the view of the
+ * display changes, see {@link MaplandsDisplay#getProjection()}.
+ */
+public final class MapProjection {
+    private final double originX, originY;
+    private final double xx, xy, yx, yy, zx, zy;
+    private final int originDepth;
+    private final int xDepth, yDepth, zDepth;
+    private final int startX, startY, startZ;
+
+    /**
+     * Creates the projection of a view
+     *
+     * @param facing Direction the view is facing
+     * @param zoom Zoom level of the view
+     * @param startX X-coordinate of the block at the center of the view
+     * @param startY Y-coordinate of the block at the center of the view
+     * @param startZ Z-coordinate of the block at the center of the view
+     * @param width Width of the display in pixels
+     * @param height Height of the display in pixels
+     */
+    public MapProjection(BlockFace facing, ZoomLevel zoom, int startX, int startY, int startZ, int width, int height) {
+        this.startX = startX;
+        this.startY = startY;
+        this.startZ = startZ;
+
+        IntVector3 origin = MapUtil.blockToScreenTile(facing, 0, 0, 0);
+        IntVector3 dx = MapUtil.blockToScreenTile(facing, 1, 0, 0);
+        IntVector3 dy = MapUtil.blockToScreenTile(facing, 0, 1, 0);
+        IntVector3 dz = MapUtil.blockToScreenTile(facing, 0, 0, 1);
+        if (origin == null || dx == null || dy == null || dz == null) {
+            // Invalid facing, everything is projected onto 0/0/0
+            this.originX = this.originY = 0.0;
+            this.xx = this.xy = this.yx = this.yy = this.zx = this.zy = 0.0;
+            this.originDepth = this.xDepth = this.yDepth = this.zDepth = 0;
+            return;
+        }
+
+        // Change in pixel coordinates for every block step along x/y/z
+        double stepX = zoom.getTileStepX();
+        double stepY = zoom.getTileStepY();
+        this.xx = stepX * (dx.x - origin.x);
+        this.xy = stepY * (dx.y - origin.y);
+        this.yx = stepX * (dy.x - origin.x);
+        this.yy = stepY * (dy.y - origin.y);
+        this.zx = stepX * (dz.x - origin.x);
+        this.zy = stepY * (dz.y - origin.y);
+
+        // Pixel coordinates of the middle of the start block
+        // Positions are relative to the center of the block (0.5) to match the tile
+        this.originX = zoom.getScreenX(origin.x) + (width >> 1) - 0.5 * (this.xx + this.yx + this.zx);
+        this.originY = zoom.getScreenY(origin.y) + (height >> 1) - 0.5 * (this.xy + this.yy + this.zy);
+
+        this.originDepth = origin.z;
+        this.xDepth = dx.z - origin.z;
+        this.yDepth = dy.z - origin.z;
+        this.zDepth = dz.z - origin.z;
+    }
+
+    /**
+     * Computes the pixel coordinates on the display of a position in the world
+     *
+     * @param x World x-coordinate
+     * @param y World y-coordinate
+     * @param z World z-coordinate
+     * @param result Holder the pixel coordinates and depth are written to
+     * @return result
+     */
+    public Point project(double x, double y, double z, Point result) {
+        x -= this.startX;
+        y -= this.startY;
+        z -= this.startZ;
+        result.x = this.originX + x * this.xx + y * this.yx + z * this.zx;
+        result.y = this.originY + x * this.xy + y * this.yy + z * this.zy;
+        result.depth = this.originDepth + floor(x) * this.xDepth + floor(y) * this.yDepth + floor(z) * this.zDepth;
+        return result;
+    }
+
+    /**
+     * Computes the pixel coordinates on the display of many positions in the world
+     * at once. The positions are read as consecutive x/y/z triplets, and the pixel
+     * coordinates are written as consecutive x/y pairs.
+     *
+     * @param positions Input world positions, 3 values per position
+     * @param screen Output pixel coordinates, 2 values per position
+     * @param count Number of positions to project
+     */
+    public void projectAll(double[] positions, double[] screen, int count) {
+        for (int i = 0, p = 0, s = 0; i < count; i++, p += 3, s += 2) {
+            double x = positions[p] - this.startX;
+            double y = positions[p + 1] - this.startY;
+            double z = positions[p + 2] - this.startZ;
+            screen[s] = this.originX + x * this.xx + y * this.yx + z * this.zx;
+            screen[s + 1] = this.originY + x * this.xy + y * this.yy + z * this.zy;
+        }
+    }
+
+    private static int floor(double value) {
+        int i = (int) value;
+        return (value < i) ? (i - 1) : i;
+    }
+
+    /**
+     * Pixel coordinates and depth of a projected position. Can be re-used
+     * for projecting many positions.
+     */
+    public static final class Point {
+        public double x, y;
+        public int depth;
+
+        /**
+         * Gets whether these pixel coordinates are within the bounds of a display
+         *
+         * @param width Width of the display
+         * @param height Height of the display
+         * @return True if within bounds
+         */
+        public boolean isWithin(int width, int height) {
+            return this.x >= 0.0 && this.y >= 0.0 && this.x <= width && this.y <= height;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.bergerkiller.bukkit.maplands;
+
+import java.lang.reflect.Method;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import com.bergerkiller.bukkit.common.Task;
+
+/**
+ * Decides how much time displays may spend rendering every tick, based on how
+ * busy the server is. While the server keeps up, the budget slowly grows so spare
+ * time is used for rendering. When ticks take too long, it quickly backs off to the
+ * configured minimum. The budget is shared by all displays that render during a tick,
+ * and never exceeds the configured global ceiling.<br>
+ * <br>
+ * On servers that report the average tick time (Paper), that is used to measure load.
+ * Otherwise the time between two ticks is used, which exceeds 50 ms only when the
+ * server can no longer keep up.
+ */
+public final class MapRenderBudget {
+    private static final double MILLIS_PER_TICK = 50.0;
+    private static final double INTERVAL_TOLERANCE = 2.0;
+    private static final double GROW_MILLIS = 0.25;
+    private static final double BACK_OFF_FACTOR = 0.9;
+    private static final double SMOOTHING = 0.1;
+    private final double minRenderTime;
+    private final double maxRenderTime;
+    private final double maxTotalRenderTime;
+    private final double targetTickTime;
+    private final Method averageTickTimeMethod;
+    private Task task = null;
+    private double budget;
+    private double tickInterval = MILLIS_PER_TICK;
+    private long lastTickNanos = 0;
+    private long usedNanos = 0;
+    private int renderingThisTick = 0;
+    private int renderingLastTick = 1;
+
+    /**
+     * Creates a new render budget
+     *
+     * @param minRenderTime Total milliseconds all displays may render every tick when the server is busy
+     * @param maxRenderTime Maximum milliseconds a single display may render every tick
+     * @param maxTotalRenderTime Maximum total milliseconds all displays may render every tick
+     * @param targetTickTime Average tick time in milliseconds above which the server is considered busy
+     */
+    public MapRenderBudget(int minRenderTime, int maxRenderTime, int maxTotalRenderTime, int targetTickTime) {
+        this.maxTotalRenderTime = Math.max(1, maxTotalRenderTime);
+        this.minRenderTime = Math.min(this.maxTotalRenderTime, Math.max(1, minRenderTime));
+        this.maxRenderTime = Math.max(1, maxRenderTime);
+        this.targetTickTime = targetTickTime;
+        this.averageTickTimeMethod = findAverageTickTimeMethod();
+        this.budget = this.minRenderTime;
+    }
+
+    private static Method findAverageTickTimeMethod() {
+        try {
+            return Bukkit.getServer().getClass().getMethod("getAverageTickTime");
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts updating the budget every tick
+     *
+     * @param plugin Plugin to run the task with
+     */
+    public void start(JavaPlugin plugin) {
+        this.task = new Task(plugin) {
+            @Override
+            public void run() {
+                tick();
+            }
+        }.start(1, 1);
+    }
+
+    public void stop() {
+        Task.stop(this.task);
+        this.task = null;
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        double interval = (this.lastTickNanos == 0) ? MILLIS_PER_TICK : ((now - this.lastTickNanos) / 1000000.0);
+        this.lastTickNanos = now;
+
+        double averageTickTime = -1.0;
+        if (this.averageTickTimeMethod != null) {
+            try {
+                averageTickTime = ((Number) this.averageTickTimeMethod.invoke(Bukkit.getServer())).doubleValue();
+            } catch (Throwable t) {
+                averageTickTime = -1.0;
+            }
+        }
+
+        update(interval, averageTickTime);
+    }
+
+    /**
+     * Adjusts the budget at the start of a new tick
+     *
+     * @param interval Milliseconds since the previous tick started
+     * @param averageTickTime Average milliseconds the server spends per tick, or a negative
+     *                        value if not known
+     */
+    void update(double interval, double averageTickTime) {
+        this.tickInterval += SMOOTHING * (interval - this.tickInterval);
+
+        boolean busy;
+        if (averageTickTime >= 0.0) {
+            busy = averageTickTime > this.targetTickTime;
+        } else {
+            busy = this.tickInterval > (MILLIS_PER_TICK + INTERVAL_TOLERANCE);
+        }
+        if (busy) {
+            this.budget = Math.max(this.minRenderTime, this.budget * BACK_OFF_FACTOR);
+        } else {
+            this.budget = Math.min(this.maxTotalRenderTime, this.budget + GROW_MILLIS);
+        }
+
+        this.renderingLastTick = Math.max(1, this.renderingThisTick);
+        this.renderingThisTick = 0;
+        this.usedNanos = 0;
+    }
+
+    /**
+     * Gets the total number of milliseconds all displays may currently spend rendering every tick
+     *
+     * @return total budget in milliseconds
+     */
+    public double getBudget() {
+        return this.budget;
+    }
+
+    /**
+     * Gets the number of milliseconds a single display may currently spend rendering every tick
+     *
+     * @return budget of a display in milliseconds
+     */
+    public double getDisplayBudget() {
+        return Math.min(this.maxRenderTime, this.budget / this.renderingLastTick);
+    }
+
+    /**
+     * Called by a display when it starts rendering during a tick
+     *
+     * @param startNanos System.nanoTime() when rendering started
+     * @return System.nanoTime() value at which the display must stop rendering
+     */
+    public long startRender(long startNanos) {
+        this.renderingThisTick++;
+        long displayNanos = (long) (getDisplayBudget() * 1000000.0);
+        long remainingNanos = (long) (this.budget * 1000000.0) - this.usedNanos;
+        return startNanos + Math.max(0L, Math.min(displayNanos, remainingNanos));
+    }
+
+    /**
+     * Called by a display when it is done rendering during a tick
+     *
+     * @param startNanos Time passed to {@link #startRender(long)}
+     */
+    public void finishRender(long startNanos) {
+        this.usedNanos += System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Sends the current render budget to a player or the console
+     *
+     * @param sender Recipient of the budget
+     */
+    public void sendTo(CommandSender sender) {
+        sender.sendMessage(ChatColor.YELLOW + "Render budget: " + ChatColor.WHITE +
+                String.format("%.2f", this.budget) + " ms/tick" +
+                ChatColor.YELLOW + "  Per map: " + ChatColor.WHITE +
+                String.format("%.2f", getDisplayBudget()) + " ms/tick" +
+                ChatColor.YELLOW + "  Tick interval: " + ChatColor.WHITE +
+                String.format("%.1f", this.tickInterval) + " ms");
+    }
+}
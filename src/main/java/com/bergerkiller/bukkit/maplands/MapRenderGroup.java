@@ -0,0 +1,165 @@
+package com.bergerkiller.bukkit.maplands;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.block.BlockFace;
+
+/**
+ * A group of displays that show the exact same view of the world. Only the first
+ * display of the group (the leader) renders the world, the other displays copy
+ * what it rendered. When the leader leaves the group, the next display takes over
+ * rendering where it left off.
+ */
+public final class MapRenderGroup {
+    private static final Map<Key, MapRenderGroup> groups = new HashMap<Key, MapRenderGroup>();
+    private final Key key;
+    private final List<MaplandsDisplay> displays = new ArrayList<MaplandsDisplay>();
+    private int version = 0;
+
+    private MapRenderGroup(Key key) {
+        this.key = key;
+    }
+
+    public Key getKey() {
+        return this.key;
+    }
+
+    /**
+     * Gets the display that renders the world for all displays in this group
+     *
+     * @return leader display
+     */
+    public MaplandsDisplay getLeader() {
+        return this.displays.get(0);
+    }
+
+    public boolean isLeader(MaplandsDisplay display) {
+        return this.displays.get(0) == display;
+    }
+
+    /**
+     * Gets the number of displays in this group
+     *
+     * @return display count
+     */
+    public int size() {
+        return this.displays.size();
+    }
+
+    /**
+     * Gets the version of the leader's canvas. Every time the leader draws, this
+     * version is incremented, so followers know to copy the canvas again.
+     *
+     * @return canvas version
+     */
+    public int getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Called by the leader when it changed the contents of its canvas
+     */
+    public void markChanged() {
+        this.version++;
+    }
+
+    /**
+     * Removes a display from this group. If the display was the leader, the next
+     * display in the group takes over rendering.
+     *
+     * @param display The display to remove
+     */
+    public void leave(MaplandsDisplay display) {
+        boolean wasLeader = this.isLeader(display);
+        if (!this.displays.remove(display)) {
+            return;
+        }
+        if (this.displays.isEmpty()) {
+            groups.remove(this.key);
+        } else if (wasLeader) {
+            this.getLeader().takeOverRendering(display);
+            this.version++;
+        }
+    }
+
+    /**
+     * Checks whether a group of displays showing a particular view exists
+     *
+     * @param key The view
+     * @return True if a display already shows this view
+     */
+    public static boolean exists(Key key) {
+        return groups.containsKey(key);
+    }
+
+    /**
+     * Adds a display to the group of displays with the same view. If no such
+     * group exists yet, a new group is created with the display as leader.
+     *
+     * @param display The display to add
+     * @param key The view the display shows
+     * @return group the display was added to
+     */
+    public static MapRenderGroup join(MaplandsDisplay display, Key key) {
+        MapRenderGroup group = groups.computeIfAbsent(key, MapRenderGroup::new);
+        group.displays.add(display);
+        return group;
+    }
+
+    /**
+     * Uniquely identifies the view of the world shown on a display
+     */
+    public static final class Key {
+        public final String worldName;
+        public final int px, py, pz;
+        public final BlockFace facing;
+        public final ZoomLevel zoom;
+        public final int width, height;
+        public final int seeThroughLimit;
+        public final int minRenderY, maxRenderY;
+        public final boolean liveRefresh;
+
+        public Key(String worldName, int px, int py, int pz, BlockFace facing, ZoomLevel zoom, int width, int height,
+                   int seeThroughLimit, int minRenderY, int maxRenderY, boolean liveRefresh)
+        {
+            this.worldName = worldName;
+            this.px = px;
+            this.py = py;
+            this.pz = pz;
+            this.facing = facing;
+            this.zoom = zoom;
+            this.width = width;
+            this.height = height;
+            this.seeThroughLimit = seeThroughLimit;
+            this.minRenderY = minRenderY;
+            this.maxRenderY = maxRenderY;
+            this.liveRefresh = liveRefresh;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((this.px * 31 + this.py) * 31 + this.pz) * 31 + this.worldName.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            } else if (o instanceof Key) {
+                Key other = (Key) o;
+                return this.px == other.px && this.py == other.py && this.pz == other.pz &&
+                       this.facing == other.facing && this.zoom == other.zoom &&
+                       this.width == other.width && this.height == other.height &&
+                       this.seeThroughLimit == other.seeThroughLimit &&
+                       this.minRenderY == other.minRenderY && this.maxRenderY == other.maxRenderY &&
+                       this.liveRefresh == other.liveRefresh &&
+                       this.worldName.equals(other.worldName);
+            } else {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.bergerkiller.bukkit.maplands;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.bukkit.block.BlockFace;
+
+import com.bergerkiller.bukkit.common.bases.IntVector3;
+
+/**
+ * Snapshot of the rendering progress of a display that has not finished rendering yet.
+ * Stored alongside the color and depth data in the {@link MapCanvasCache}, so that
+ * rendering can continue where it left off instead of starting over.
+ */
+public final class MapRenderProgress {
+    private static final int VERSION = 3;
+    public final String worldName;
+    public final int px, py, pz;
+    public final BlockFace facing;
+    public final ZoomLevel zoom;
+    public final int minCols, maxCols, minRows, maxRows;
+    public final int minRenderY, maxRenderY;
+    public final int currentRenderZ;
+    public final BitSet tilesThatNeedDrawing;
+    public final List<IntVector3> dirtyTiles;
+    public final List<IntVector3> redrawSections;
+
+    public MapRenderProgress(String worldName, int px, int py, int pz, BlockFace facing, ZoomLevel zoom,
+                             int minCols, int maxCols, int minRows, int maxRows, int minRenderY, int maxRenderY,
+                             int currentRenderZ, BitSet tilesThatNeedDrawing, Collection<IntVector3> dirtyTiles,
+                             Collection<IntVector3> redrawSections)
+    {
+        this.worldName = worldName;
+        this.px = px;
+        this.py = py;
+        this.pz = pz;
+        this.facing = facing;
+        this.zoom = zoom;
+        this.minCols = minCols;
+        this.maxCols = maxCols;
+        this.minRows = minRows;
+        this.maxRows = maxRows;
+        this.minRenderY = minRenderY;
+        this.maxRenderY = maxRenderY;
+        this.currentRenderZ = currentRenderZ;
+        this.tilesThatNeedDrawing = tilesThatNeedDrawing;
+        this.dirtyTiles = Collections.unmodifiableList(new ArrayList<IntVector3>(dirtyTiles));
+        this.redrawSections = Collections.unmodifiableList(new ArrayList<IntVector3>(redrawSections));
+    }
+
+    /**
+     * Checks whether this progress was recorded for the same view and height range as
+     * is described by the parameters. If not, the progress can not be used.
+     *
+     * @return True if this progress matches the view
+     */
+    public boolean matches(String worldName, int px, int py, int pz, BlockFace facing, ZoomLevel zoom,
+                           int minCols, int maxCols, int minRows, int maxRows, int minRenderY, int maxRenderY)
+    {
+        return this.worldName.equals(worldName) &&
+               this.px == px && this.py == py && this.pz == pz &&
+               this.facing == facing && this.zoom == zoom &&
+               this.minCols == minCols && this.maxCols == maxCols &&
+               this.minRows == minRows && this.maxRows == maxRows &&
+               this.minRenderY == minRenderY && this.maxRenderY == maxRenderY;
+    }
+
+    public void write(DataOutputStream stream) throws IOException {
+        stream.writeInt(VERSION);
+        stream.writeUTF(this.worldName);
+        stream.writeInt(this.px);
+        stream.writeInt(this.py);
+        stream.writeInt(this.pz);
+        stream.writeUTF(this.facing.name());
+        stream.writeUTF(this.zoom.name());
+        stream.writeInt(this.minCols);
+        stream.writeInt(this.maxCols);
+        stream.writeInt(this.minRows);
+        stream.writeInt(this.maxRows);
+        stream.writeInt(this.minRenderY);
+        stream.writeInt(this.maxRenderY);
+        stream.writeInt(this.currentRenderZ);
+
+        long[] tiles = this.tilesThatNeedDrawing.toLongArray();
+        stream.writeInt(tiles.length);
+        for (long value : tiles) {
+            stream.writeLong(value);
+        }
+
+        stream.writeInt(this.dirtyTiles.size());
+        for (IntVector3 tile : this.dirtyTiles) {
+            stream.writeInt(tile.x);
+            stream.writeInt(tile.y);
+            stream.writeInt(tile.z);
+        }
+
+        stream.writeInt(this.redrawSections.size());
+        for (IntVector3 section : this.redrawSections) {
+            stream.writeInt(section.x);
+            stream.writeInt(section.y);
+            stream.writeInt(section.z);
+        }
+    }
+
+    /**
+     * Reads progress previously written using {@link #write(DataOutputStream)}
+     *
+     * @param stream Stream to read from
+     * @return progress read, or null if it was written by an unsupported version
+     * @throws IOException
+     */
+    public static MapRenderProgress read(DataInputStream stream) throws IOException {
+        if (stream.readInt() != VERSION) {
+            return null;
+        }
+
+        String worldName = stream.readUTF();
+        int px = stream.readInt();
+        int py = stream.readInt();
+        int pz = stream.readInt();
+        BlockFace facing;
+        ZoomLevel zoom;
+        try {
+            facing = BlockFace.valueOf(stream.readUTF());
+            zoom = ZoomLevel.valueOf(stream.readUTF());
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+        int minCols = stream.readInt();
+        int maxCols = stream.readInt();
+        int minRows = stream.readInt();
+        int maxRows = stream.readInt();
+        int minRenderY = stream.readInt();
+        int maxRenderY = stream.readInt();
+        int currentRenderZ = stream.readInt();
+
+        long[] tiles = new long[stream.readInt()];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = stream.readLong();
+        }
+
+        int numDirtyTiles = stream.readInt();
+        List<IntVector3> dirtyTiles = new ArrayList<IntVector3>(numDirtyTiles);
+        for (int i = 0; i < numDirtyTiles; i++) {
+            dirtyTiles.add(new IntVector3(stream.readInt(), stream.readInt(), stream.readInt()));
+        }
+
+        int numRedrawSections = stream.readInt();
+        List<IntVector3> redrawSections = new ArrayList<IntVector3>(numRedrawSections);
+        for (int i = 0; i < numRedrawSections; i++) {
+            redrawSections.add(new IntVector3(stream.readInt(), stream.readInt(), stream.readInt()));
+        }
+
+        return new MapRenderProgress(worldName, px, py, pz, facing, zoom,
+                minCols, maxCols, minRows, maxRows, minRenderY, maxRenderY,
+                currentRenderZ, BitSet.valueOf(tiles), dirtyTiles, redrawSections);
+    }
+}
@@ -0,0 +1,159 @@
+package com.bergerkiller.bukkit.maplands;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+/**
+ * Keeps track of the time spent in the different phases of ticking a display, and
+ * counters of the work done. Every display has its own statistics, and everything
+ * recorded is also added to the {@link #GLOBAL} statistics of all displays.
+ */
+public final class MapRenderStats {
+    /** Statistics of all displays combined, since the plugin was enabled */
+    public static final MapRenderStats GLOBAL = new MapRenderStats(null);
+    private final MapRenderStats global;
+    private long ticks;
+    private long markerNanos;
+    private long chunkNanos;
+    private long dirtyTileNanos;
+    private long sliceNanos;
+    private long slices;
+    private long tilesDrawn;
+    private long tilesHidden;
+    private long notDrawnRetries;
+    private long chunkCacheHits;
+    private long chunkCacheMisses;
+    private long spriteCacheHits;
+    private long spriteCacheMisses;
+
+    private MapRenderStats(MapRenderStats global) {
+        this.global = global;
+    }
+
+    /**
+     * Creates new statistics for a single display
+     *
+     * @return new display statistics
+     */
+    public static MapRenderStats create() {
+        return new MapRenderStats(GLOBAL);
+    }
+
+    public void addTick(long markerNanos, long chunkNanos, long dirtyTileNanos, long sliceNanos) {
+        this.ticks++;
+        this.markerNanos += markerNanos;
+        this.chunkNanos += chunkNanos;
+        this.dirtyTileNanos += dirtyTileNanos;
+        this.sliceNanos += sliceNanos;
+        if (this.global != null) {
+            this.global.addTick(markerNanos, chunkNanos, dirtyTileNanos, sliceNanos);
+        }
+    }
+
+    public void addSlice() {
+        this.slices++;
+        if (this.global != null) {
+            this.global.addSlice();
+        }
+    }
+
+    public void addTileDrawn() {
+        this.tilesDrawn++;
+        if (this.global != null) {
+            this.global.addTileDrawn();
+        }
+    }
+
+    public void addTileHidden() {
+        this.tilesHidden++;
+        if (this.global != null) {
+            this.global.addTileHidden();
+        }
+    }
+
+    public void addNotDrawnRetry() {
+        this.notDrawnRetries++;
+        if (this.global != null) {
+            this.global.addNotDrawnRetry();
+        }
+    }
+
+    public void addChunkCacheLookup(boolean hit) {
+        if (hit) {
+            this.chunkCacheHits++;
+        } else {
+            this.chunkCacheMisses++;
+        }
+        if (this.global != null) {
+            this.global.addChunkCacheLookup(hit);
+        }
+    }
+
+    public void addSpriteCacheLookup(boolean hit) {
+        if (hit) {
+            this.spriteCacheHits++;
+        } else {
+            this.spriteCacheMisses++;
+        }
+        if (this.global != null) {
+            this.global.addSpriteCacheLookup(hit);
+        }
+    }
+
+    public long getTicks() {
+        return this.ticks;
+    }
+
+    public long getSlices() {
+        return this.slices;
+    }
+
+    public long getTilesDrawn() {
+        return this.tilesDrawn;
+    }
+
+    public long getTilesHidden() {
+        return this.tilesHidden;
+    }
+
+    public long getNotDrawnRetries() {
+        return this.notDrawnRetries;
+    }
+
+    /**
+     * Sends the statistics to a player or the console
+     *
+     * @param sender Recipient of the statistics
+     */
+    public void sendTo(CommandSender sender) {
+        sender.sendMessage(ChatColor.YELLOW + "Ticks: " + ChatColor.WHITE + this.ticks +
+                ChatColor.YELLOW + "  Slices: " + ChatColor.WHITE + this.slices +
+                ChatColor.YELLOW + "  Tiles drawn: " + ChatColor.WHITE + this.tilesDrawn +
+                ChatColor.YELLOW + "  Hidden: " + ChatColor.WHITE + this.tilesHidden +
+                ChatColor.YELLOW + "  Not drawn retries: " + ChatColor.WHITE + this.notDrawnRetries);
+        sender.sendMessage(ChatColor.YELLOW + "Average ms/tick: " +
+                ChatColor.WHITE + "markers " + formatMillis(this.markerNanos) +
+                ChatColor.WHITE + ", chunks " + formatMillis(this.chunkNanos) +
+                ChatColor.WHITE + ", dirty tiles " + formatMillis(this.dirtyTileNanos) +
+                ChatColor.WHITE + ", slices " + formatMillis(this.sliceNanos));
+        sender.sendMessage(ChatColor.YELLOW + "Chunk cache hit rate: " + ChatColor.WHITE +
+                formatRate(this.chunkCacheHits, this.chunkCacheMisses) +
+                ChatColor.YELLOW + "  Sprite cache hit rate: " + ChatColor.WHITE +
+                formatRate(this.spriteCacheHits, this.spriteCacheMisses));
+    }
+
+    private String formatMillis(long nanos) {
+        if (this.ticks == 0) {
+            return "0.000";
+        }
+        return String.format("%.3f", (double) nanos / (double) this.ticks / 1000000.0);
+    }
+
+    private static String formatRate(long hits, long misses) {
+        long total = hits + misses;
+        if (total == 0) {
+            return "-";
+        }
+        return String.format("%.1f%% (%d/%d)", 100.0 * (double) hits / (double) total, hits, total);
+    }
+}
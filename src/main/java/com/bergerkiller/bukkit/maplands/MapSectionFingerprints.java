@@ -0,0 +1,255 @@
+package com.bergerkiller.bukkit.maplands;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+import com.bergerkiller.bukkit.common.utils.MathUtil;
+
+/**
+ * Stores a hash of the block contents of the 16x16x16 chunk sections a display
+ * drew blocks from. The hash of a section is recorded when the display first draws
+ * from it, so it matches what was drawn. This makes it possible to check what changed
+ * in the world since the display was rendered, without having to re-render the entire display.
+ */
+public final class MapSectionFingerprints {
+    private static final int VERSION = 2;
+    public final String worldName;
+    public final int minX, minY, minZ;
+    public final int maxX, maxY, maxZ;
+    private final int sizeX, sizeZ;
+    private final int[] hashes;
+    private final BitSet computed;
+    private boolean complete = true;
+
+    /**
+     * Creates new fingerprints for all the chunk sections within block bounds, limited
+     * to the block y-coordinates that are rendered. None of the sections are computed yet.
+     *
+     * @param worldName Name of the world
+     * @param bounds Block bounds of the display
+     */
+    public MapSectionFingerprints(String worldName, MapBlockBounds bounds) {
+        this(worldName,
+             MathUtil.toChunk(bounds.getMinX()),
+             MathUtil.toChunk(bounds.getMinY()),
+             MathUtil.toChunk(bounds.getMinZ()),
+             MathUtil.toChunk(bounds.getMaxX()),
+             MathUtil.toChunk(bounds.getMaxY()),
+             MathUtil.toChunk(bounds.getMaxZ()));
+    }
+
+    /**
+     * Creates a copy of fingerprints
+     *
+     * @param fingerprints Fingerprints to copy
+     */
+    public MapSectionFingerprints(MapSectionFingerprints fingerprints) {
+        this(fingerprints.worldName,
+             fingerprints.minX, fingerprints.minY, fingerprints.minZ,
+             fingerprints.maxX, fingerprints.maxY, fingerprints.maxZ);
+        System.arraycopy(fingerprints.hashes, 0, this.hashes, 0, this.hashes.length);
+        this.computed.or(fingerprints.computed);
+        this.complete = fingerprints.complete;
+    }
+
+    private MapSectionFingerprints(String worldName, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        this.worldName = worldName;
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+        this.sizeX = maxX - minX + 1;
+        this.sizeZ = maxZ - minZ + 1;
+        this.hashes = new int[Math.max(0, this.sizeX * this.sizeZ * (maxY - minY + 1))];
+        this.computed = new BitSet(this.hashes.length);
+    }
+
+    /**
+     * Checks whether these fingerprints cover the exact same sections as other fingerprints
+     *
+     * @param other Fingerprints to compare with
+     * @return True if the same world and sections are covered
+     */
+    public boolean isSameArea(MapSectionFingerprints other) {
+        return this.worldName.equals(other.worldName) &&
+               this.minX == other.minX && this.minY == other.minY && this.minZ == other.minZ &&
+               this.maxX == other.maxX && this.maxY == other.maxY && this.maxZ == other.maxZ;
+    }
+
+    /**
+     * Gets the number of chunk sections covered
+     *
+     * @return section count
+     */
+    public int getSectionCount() {
+        return this.hashes.length;
+    }
+
+    /**
+     * Gets whether the hashes were recorded for all sections the display drew from.
+     * This is not the case when the display drew blocks before these fingerprints
+     * were created, such as when loaded from the cache without fingerprints.
+     *
+     * @return True if complete
+     */
+    public boolean isComplete() {
+        return this.complete;
+    }
+
+    /**
+     * Marks that the display drew blocks without recording the hashes of their sections
+     */
+    public void markIncomplete() {
+        this.complete = false;
+    }
+
+    /**
+     * Gets the index of the next section whose hash has been computed
+     *
+     * @param index Section index to start looking at
+     * @return section index, or -1 if there are no more computed sections
+     */
+    public int getNextComputed(int index) {
+        return this.computed.nextSetBit(index);
+    }
+
+    public boolean isComputed(int index) {
+        return this.computed.get(index);
+    }
+
+    public int getHash(int index) {
+        return this.hashes[index];
+    }
+
+    public void setHash(int index, int hash) {
+        this.hashes[index] = hash;
+        this.computed.set(index);
+    }
+
+    public int getSectionX(int index) {
+        return this.minX + (index % this.sizeX);
+    }
+
+    public int getSectionZ(int index) {
+        return this.minZ + ((index / this.sizeX) % this.sizeZ);
+    }
+
+    public int getSectionY(int index) {
+        return this.minY + (index / (this.sizeX * this.sizeZ));
+    }
+
+    /**
+     * Gets the index of the chunk section a block is in
+     *
+     * @param bx Block X-coordinate
+     * @param by Block Y-coordinate
+     * @param bz Block Z-coordinate
+     * @return section index, or -1 if the block is outside of the sections covered
+     */
+    public int getIndex(int bx, int by, int bz) {
+        int sx = MathUtil.toChunk(bx) - this.minX;
+        int sy = MathUtil.toChunk(by) - this.minY;
+        int sz = MathUtil.toChunk(bz) - this.minZ;
+        if (sx >= 0 && sx < this.sizeX && sz >= 0 && sz < this.sizeZ && sy >= 0 && sy <= (this.maxY - this.minY)) {
+            return sx + this.sizeX * (sz + this.sizeZ * sy);
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Marks the chunk section of a block as changed, so its hash is recorded
+     * again when the display next draws from it
+     *
+     * @param bx Block X-coordinate
+     * @param by Block Y-coordinate
+     * @param bz Block Z-coordinate
+     */
+    public void markChanged(int bx, int by, int bz) {
+        int index = getIndex(bx, by, bz);
+        if (index != -1) {
+            this.computed.clear(index);
+        }
+    }
+
+    /**
+     * Computes the hash of the block contents of a chunk section. The chunk
+     * must be loaded.
+     *
+     * @param source Source of the blocks of the section
+     * @param index Index of the section
+     * @return hash of the section
+     */
+    public int computeHash(BlockSource source, int index) {
+        int bx = getSectionX(index) << 4;
+        int by = getSectionY(index) << 4;
+        int bz = getSectionZ(index) << 4;
+        int hash = 1;
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    hash = 31 * hash + source.getBlockData(bx + x, by + y, bz + z).getCombinedId();
+                }
+            }
+        }
+        return hash;
+    }
+
+    public void write(DataOutputStream stream) throws IOException {
+        stream.writeInt(VERSION);
+        stream.writeUTF(this.worldName);
+        stream.writeInt(this.minX);
+        stream.writeInt(this.minY);
+        stream.writeInt(this.minZ);
+        stream.writeInt(this.maxX);
+        stream.writeInt(this.maxY);
+        stream.writeInt(this.maxZ);
+        stream.writeBoolean(this.complete);
+
+        long[] computedData = this.computed.toLongArray();
+        stream.writeInt(computedData.length);
+        for (long value : computedData) {
+            stream.writeLong(value);
+        }
+        for (int hash : this.hashes) {
+            stream.writeInt(hash);
+        }
+    }
+
+    /**
+     * Reads fingerprints previously written using {@link #write(DataOutputStream)}
+     *
+     * @param stream Stream to read from
+     * @return fingerprints read, or null if they were written by an unsupported version
+     * @throws IOException
+     */
+    public static MapSectionFingerprints read(DataInputStream stream) throws IOException {
+        if (stream.readInt() != VERSION) {
+            return null;
+        }
+
+        String worldName = stream.readUTF();
+        int minX = stream.readInt();
+        int minY = stream.readInt();
+        int minZ = stream.readInt();
+        int maxX = stream.readInt();
+        int maxY = stream.readInt();
+        int maxZ = stream.readInt();
+        MapSectionFingerprints fingerprints = new MapSectionFingerprints(worldName, minX, minY, minZ, maxX, maxY, maxZ);
+        fingerprints.complete = stream.readBoolean();
+
+        long[] computedData = new long[stream.readInt()];
+        for (int i = 0; i < computedData.length; i++) {
+            computedData[i] = stream.readLong();
+        }
+        fingerprints.computed.or(BitSet.valueOf(computedData));
+        for (int i = 0; i < fingerprints.hashes.length; i++) {
+            fingerprints.hashes[i] = stream.readInt();
+        }
+        return fingerprints;
+    }
+}
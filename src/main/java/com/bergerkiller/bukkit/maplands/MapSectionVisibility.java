@@ -0,0 +1,248 @@
+package com.bergerkiller.bukkit.maplands;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bukkit.block.BlockFace;
+
+import com.bergerkiller.bukkit.common.bases.IntVector3;
+import com.bergerkiller.bukkit.common.utils.MathUtil;
+
+/**
+ * Remembers which blocks rendered by a display are hidden behind the blocks in front
+ * of them. Seen from the facing of the display, the sprite of a block is covered
+ * entirely by the sprites of three other blocks: the block above it, and the blocks
+ * next to it on the two sides that face the viewer. When those three are fully opaque,
+ * the block can not be seen and does not have to be looked up or drawn.<br>
+ * <br>
+ * Whether a block is hidden is computed while rendering, and stored as bits per chunk
+ * section. When a block changes, the block and the blocks it could hide are forgotten
+ * so they are computed again.
+ */
+public final class MapSectionVisibility {
+    public static final int UNKNOWN = 0;
+    public static final int VISIBLE = 1;
+    public static final int HIDDEN = 2;
+    private static final int WORDS_PER_SECTION = (16 * 16 * 16) / 64;
+    private final BlockFace facing;
+    private final IntVector3[] occluders;
+    private final IntVector3[] occluderTiles;
+    private final Map<Long, Section> sections = new HashMap<Long, Section>();
+    private Section lastSection = null;
+
+    /**
+     * Creates new visibility information for a facing, with nothing computed yet
+     *
+     * @param facing View direction of the display
+     */
+    public MapSectionVisibility(BlockFace facing) {
+        this.facing = facing;
+
+        // Of every axis, pick the neighbour that is drawn at a lower depth (in front)
+        IntVector3 origin = MapUtil.blockToScreenTile(facing, 0, 0, 0);
+        int frontX = (MapUtil.blockToScreenTile(facing, 1, 0, 0).z < origin.z) ? 1 : -1;
+        int frontY = (MapUtil.blockToScreenTile(facing, 0, 1, 0).z < origin.z) ? 1 : -1;
+        int frontZ = (MapUtil.blockToScreenTile(facing, 0, 0, 1).z < origin.z) ? 1 : -1;
+        this.occluders = new IntVector3[] {
+                new IntVector3(0, frontY, 0),
+                new IntVector3(frontX, 0, 0),
+                new IntVector3(0, 0, frontZ)
+        };
+        this.occluderTiles = new IntVector3[this.occluders.length];
+        for (int i = 0; i < this.occluders.length; i++) {
+            IntVector3 o = this.occluders[i];
+            IntVector3 tile = MapUtil.blockToScreenTile(facing, o.x, o.y, o.z);
+            this.occluderTiles[i] = new IntVector3(tile.x - origin.x, tile.y - origin.y, tile.z - origin.z);
+        }
+    }
+
+    /**
+     * Creates a copy of the visibility information computed by another display
+     *
+     * @param visibility The visibility information to copy
+     */
+    public MapSectionVisibility(MapSectionVisibility visibility) {
+        this.facing = visibility.facing;
+        this.occluders = visibility.occluders;
+        this.occluderTiles = visibility.occluderTiles;
+        for (Map.Entry<Long, Section> entry : visibility.sections.entrySet()) {
+            this.sections.put(entry.getKey(), new Section(entry.getValue()));
+        }
+    }
+
+    public BlockFace getFacing() {
+        return this.facing;
+    }
+
+    /**
+     * Gets the number of blocks that together can hide a block
+     *
+     * @return occluder count
+     */
+    public int getOccluderCount() {
+        return this.occluders.length;
+    }
+
+    /**
+     * Gets the block offset of a block that can hide the block behind it
+     *
+     * @param index Index of the occluder
+     * @return block offset relative to the hidden block
+     */
+    public IntVector3 getOccluder(int index) {
+        return this.occluders[index];
+    }
+
+    /**
+     * Gets the tile offset of a block that can hide the block behind it
+     *
+     * @param index Index of the occluder
+     * @return tile offset relative to the tile of the hidden block
+     */
+    public IntVector3 getOccluderTile(int index) {
+        return this.occluderTiles[index];
+    }
+
+    /**
+     * Gets whether a block was computed to be hidden
+     *
+     * @param x Block x-coordinate
+     * @param y Block y-coordinate
+     * @param z Block z-coordinate
+     * @return {@link #UNKNOWN}, {@link #VISIBLE} or {@link #HIDDEN}
+     */
+    public int get(int x, int y, int z) {
+        Section section = getSection(x, y, z, false);
+        if (section == null) {
+            return UNKNOWN;
+        }
+        int index = getIndex(x, y, z);
+        long bit = 1L << index;
+        if ((section.computed[index >> 6] & bit) == 0) {
+            return UNKNOWN;
+        } else if ((section.hidden[index >> 6] & bit) == 0) {
+            return VISIBLE;
+        } else {
+            return HIDDEN;
+        }
+    }
+
+    /**
+     * Stores whether a block is hidden
+     *
+     * @param x Block x-coordinate
+     * @param y Block y-coordinate
+     * @param z Block z-coordinate
+     * @param hidden Whether the block is hidden
+     */
+    public void set(int x, int y, int z, boolean hidden) {
+        Section section = getSection(x, y, z, true);
+        int index = getIndex(x, y, z);
+        long bit = 1L << index;
+        section.computed[index >> 6] |= bit;
+        if (hidden) {
+            section.hidden[index >> 6] |= bit;
+        } else {
+            section.hidden[index >> 6] &= ~bit;
+        }
+    }
+
+    /**
+     * Forgets whether a block that changed is hidden, and whether the blocks
+     * behind it that it could hide are hidden
+     *
+     * @param x Block x-coordinate
+     * @param y Block y-coordinate
+     * @param z Block z-coordinate
+     */
+    public void markChanged(int x, int y, int z) {
+        forget(x, y, z);
+        for (IntVector3 o : this.occluders) {
+            forget(x - o.x, y - o.y, z - o.z);
+        }
+    }
+
+    /**
+     * Forgets whether the blocks of a chunk section that changed are hidden, and of the
+     * neighbouring sections behind it that it could hide blocks of
+     *
+     * @param cx Section x-coordinate
+     * @param cy Section y-coordinate
+     * @param cz Section z-coordinate
+     */
+    public void markSectionChanged(int cx, int cy, int cz) {
+        forgetSection(cx, cy, cz);
+        for (IntVector3 o : this.occluders) {
+            forgetSection(cx - o.x, cy - o.y, cz - o.z);
+        }
+    }
+
+    /**
+     * Forgets everything that was computed
+     */
+    public void clear() {
+        this.sections.clear();
+        this.lastSection = null;
+    }
+
+    private void forget(int x, int y, int z) {
+        Section section = getSection(x, y, z, false);
+        if (section != null) {
+            int index = getIndex(x, y, z);
+            section.computed[index >> 6] &= ~(1L << index);
+        }
+    }
+
+    private void forgetSection(int cx, int cy, int cz) {
+        Section section = this.sections.remove(Long.valueOf(WorldChangeJournal.pack(cx, cy, cz)));
+        if (section != null && section == this.lastSection) {
+            this.lastSection = null;
+        }
+    }
+
+    private Section getSection(int x, int y, int z, boolean create) {
+        int cx = MathUtil.toChunk(x);
+        int cy = MathUtil.toChunk(y);
+        int cz = MathUtil.toChunk(z);
+
+        // Saves a lookup while scanning blocks of the same section
+        Section section = this.lastSection;
+        if (section != null && section.cx == cx && section.cy == cy && section.cz == cz) {
+            return section;
+        }
+
+        Long key = Long.valueOf(WorldChangeJournal.pack(cx, cy, cz));
+        section = this.sections.get(key);
+        if (section == null) {
+            if (!create) {
+                return null;
+            }
+            section = new Section(cx, cy, cz);
+            this.sections.put(key, section);
+        }
+        this.lastSection = section;
+        return section;
+    }
+
+    private static int getIndex(int x, int y, int z) {
+        return ((y & 0xF) << 8) | ((z & 0xF) << 4) | (x & 0xF);
+    }
+
+    private static final class Section {
+        public final int cx, cy, cz;
+        public final long[] computed = new long[WORDS_PER_SECTION];
+        public final long[] hidden = new long[WORDS_PER_SECTION];
+
+        public Section(int cx, int cy, int cz) {
+            this.cx = cx;
+            this.cy = cy;
+            this.cz = cz;
+        }
+
+        public Section(Section section) {
+            this(section.cx, section.cy, section.cz);
+            System.arraycopy(section.computed, 0, this.computed, 0, WORDS_PER_SECTION);
+            System.arraycopy(section.hidden, 0, this.hidden, 0, WORDS_PER_SECTION);
+        }
+    }
+}
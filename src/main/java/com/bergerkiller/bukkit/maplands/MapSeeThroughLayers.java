@@ -0,0 +1,171 @@
+package com.bergerkiller.bukkit.maplands;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Remembers the depths at which see-through blocks were drawn on every tile of a display,
+ * so that no more than a limited number of see-through blocks are shown on top of each other.
+ * Once a tile shows one less than the limit, the next see-through block behind them is drawn
+ * opaque instead.<br>
+ * <br>
+ * Because the depths are remembered, and not just how many there are, a tile that is drawn
+ * again from a certain depth keeps counting the see-through blocks still drawn in front of it.
+ * This is stored in the {@link MapCanvasCache} alongside the canvas it was counted for.
+ */
+public final class MapSeeThroughLayers {
+    private static final int VERSION = 1;
+    private final int limit;
+    private final int capacity;
+    private final byte[] counts;
+    private final short[] depths;
+
+    /**
+     * Creates new see-through layer information, with no blocks drawn yet
+     *
+     * @param numTiles Number of tiles of the display
+     * @param limit Maximum number of see-through blocks shown on a tile, at most
+     *              {@link MaplandsDisplay#MAX_SEE_THROUGH_LIMIT}
+     */
+    public MapSeeThroughLayers(int numTiles, int limit) {
+        this.limit = limit;
+        this.capacity = Math.max(0, limit - 1);
+        this.counts = new byte[numTiles];
+        this.depths = new short[numTiles * this.capacity];
+    }
+
+    /**
+     * Creates a copy of the see-through layer information of another display
+     *
+     * @param layers The see-through layer information to copy
+     */
+    public MapSeeThroughLayers(MapSeeThroughLayers layers) {
+        this.limit = layers.limit;
+        this.capacity = layers.capacity;
+        this.counts = layers.counts.clone();
+        this.depths = layers.depths.clone();
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public int getTileCount() {
+        return this.counts.length;
+    }
+
+    /**
+     * Forgets all the see-through blocks drawn
+     */
+    public void clear() {
+        Arrays.fill(this.counts, (byte) 0);
+    }
+
+    /**
+     * Gets the number of see-through blocks drawn on a tile in front of a depth
+     *
+     * @param tile Index of the tile
+     * @param depth Tile depth
+     * @return number of see-through blocks drawn at a lower depth
+     */
+    public int countInFront(int tile, int depth) {
+        int base = tile * this.capacity;
+        int count = this.counts[tile];
+        int n = 0;
+        while (n < count && this.depths[base + n] < depth) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Gets whether a see-through block drawn on a tile at a depth must be drawn opaque,
+     * because the maximum number of see-through blocks are already shown in front of it
+     *
+     * @param tile Index of the tile
+     * @param depth Tile depth of the block
+     * @return True if the block must be drawn opaque
+     */
+    public boolean isLimitReached(int tile, int depth) {
+        return this.limit > 0 && (countInFront(tile, depth) + 1) >= this.limit;
+    }
+
+    /**
+     * Stores what was drawn on a tile at a depth. Whatever was remembered for this
+     * depth before is replaced.
+     *
+     * @param tile Index of the tile
+     * @param depth Tile depth
+     * @param seeThrough Whether a see-through block was drawn
+     */
+    public void set(int tile, int depth, boolean seeThrough) {
+        int base = tile * this.capacity;
+        int count = this.counts[tile];
+        int pos = countInFront(tile, depth);
+
+        // Forget the block drawn at this depth before
+        if (pos < count && this.depths[base + pos] == depth) {
+            System.arraycopy(this.depths, base + pos + 1, this.depths, base + pos, count - pos - 1);
+            count--;
+        }
+
+        // Insert the new block in depth order. When full, the block furthest back is forgotten,
+        // as it is behind the block drawn opaque anyway.
+        if (seeThrough && pos < this.capacity) {
+            if (count == this.capacity) {
+                count--;
+            }
+            System.arraycopy(this.depths, base + pos, this.depths, base + pos + 1, count - pos);
+            this.depths[base + pos] = (short) depth;
+            count++;
+        }
+
+        this.counts[tile] = (byte) count;
+    }
+
+    public void write(DataOutputStream stream) throws IOException {
+        stream.writeInt(VERSION);
+        stream.writeInt(this.limit);
+        stream.writeInt(this.counts.length);
+        stream.write(this.counts);
+        for (int tile = 0; tile < this.counts.length; tile++) {
+            int base = tile * this.capacity;
+            for (int n = 0; n < this.counts[tile]; n++) {
+                stream.writeShort(this.depths[base + n]);
+            }
+        }
+    }
+
+    /**
+     * Reads see-through layer information previously written using {@link #write(DataOutputStream)}
+     *
+     * @param stream Stream to read from
+     * @return see-through layers read, or null if written by an unsupported version
+     * @throws IOException
+     */
+    public static MapSeeThroughLayers read(DataInputStream stream) throws IOException {
+        if (stream.readInt() != VERSION) {
+            return null;
+        }
+        int limit = stream.readInt();
+        int numTiles = stream.readInt();
+        if (limit < 0 || limit > MaplandsDisplay.MAX_SEE_THROUGH_LIMIT || numTiles < 0) {
+            throw new IOException("Invalid see-through layers: limit=" + limit + " tiles=" + numTiles);
+        }
+        MapSeeThroughLayers layers = new MapSeeThroughLayers(numTiles, limit);
+        stream.readFully(layers.counts);
+        for (int tile = 0; tile < numTiles; tile++) {
+            int count = layers.counts[tile];
+            if (count < 0 || count > layers.capacity) {
+                throw new IOException("Invalid see-through layer count " + count + " of tile " + tile);
+            }
+            int base = tile * layers.capacity;
+            for (int n = 0; n < count; n++) {
+                layers.depths[base + n] = stream.readShort();
+            }
+        }
+        return layers;
+    }
+}
@@ -0,0 +1,486 @@
+package com.bergerkiller.bukkit.maplands;
+
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+
+import com.bergerkiller.bukkit.common.bases.IntVector3;
+import com.bergerkiller.bukkit.common.map.MapCanvas;
+import com.bergerkiller.bukkit.common.map.MapTexture;
+import com.bergerkiller.bukkit.common.wrappers.BlockData;
+import com.bergerkiller.bukkit.common.wrappers.BlockRenderOptions;
+import com.bergerkiller.bukkit.maplands.MaplandsDisplay.DrawResult;
+import com.bergerkiller.bukkit.maplands.util.Linked2DTile;
+import com.bergerkiller.bukkit.maplands.util.Linked2DTileList;
+import com.bergerkiller.bukkit.maplands.util.Linked2DTileSet;
+
+/**
+ * Draws the blocks of a {@link BlockSource} onto a canvas, one tile at a time or one
+ * slice of tiles at the same depth at a time. Keeps track of the view being drawn, which
+ * blocks are hidden, the see-through blocks drawn and the fingerprints of the sections
+ * drawn from.<br>
+ * <br>
+ * Used by {@link MaplandsDisplay} to render a world. Implementations decide how the chunks
+ * of the blocks drawn are loaded, so rendering can also be done without a server.
+ */
+public abstract class MapSliceRenderer {
+    public static final int TILES_PER_TIME_CHECK = 16; // amount of tiles drawn between checking the time
+    private final MapRenderStats stats;
+    private final MapBlockBounds blockBounds = new MapBlockBounds();
+    private MapCanvas canvas;
+    private BlockSource blockSource;
+    private IsometricBlockSprites sprites;
+    private BlockFace facing;
+    private ZoomLevel zoom;
+    private int startX, startY, startZ;
+    private int minRenderY, maxRenderY;
+    private int minCols, maxCols, minRows, maxRows;
+    private int minimumRenderZ, maximumRenderZ;
+    private MapSectionFingerprints fingerprints = null;
+    private MapSectionVisibility visibility = null;
+    private MapSeeThroughLayers seeThroughLayers = new MapSeeThroughLayers(0, 0);
+    private Linked2DTile sliceCursor = null;
+    private Linked2DTileSet sliceCursorTiles = null;
+    private int sliceCursorDepth;
+    private boolean sliceCursorFullyDrawn;
+    private boolean sliceCursorHasNotDrawnTiles;
+
+    public MapSliceRenderer(MapRenderStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Makes sure the chunk of a block is loaded before it is read
+     *
+     * @param x Block x-coordinate
+     * @param z Block z-coordinate
+     * @return True if the chunk is loaded, False if the block can not be drawn yet
+     */
+    protected abstract boolean cacheBlock(int x, int z);
+
+    /**
+     * Sets up the view to draw. The tiles of the canvas, the depths of the slices and the
+     * bounds of the blocks shown are computed from it. What blocks are hidden is computed
+     * again while drawing.
+     *
+     * @param canvas Canvas to draw on
+     * @param source Block source to draw the blocks of
+     * @param facing View direction
+     * @param zoom Zoom level
+     * @param startX Block x-coordinate shown in the middle of the canvas
+     * @param startY Block y-coordinate shown in the middle of the canvas
+     * @param startZ Block z-coordinate shown in the middle of the canvas
+     * @param minRenderY Lowest block y-coordinate drawn (inclusive)
+     * @param maxRenderY Highest block y-coordinate drawn (exclusive)
+     */
+    public void setView(MapCanvas canvas, BlockSource source, BlockFace facing, ZoomLevel zoom,
+                        int startX, int startY, int startZ, int minRenderY, int maxRenderY)
+    {
+        this.canvas = canvas;
+        this.blockSource = source;
+        this.facing = facing;
+        this.zoom = zoom;
+        this.sprites = IsometricBlockSprites.getSprites(facing, zoom);
+        this.startX = startX;
+        this.startY = startY;
+        this.startZ = startZ;
+        this.minRenderY = minRenderY;
+        this.maxRenderY = maxRenderY;
+
+        int nrColumns = zoom.getNumberOfColumns(canvas.getWidth());
+        int nrRows = zoom.getNumberOfRows(canvas.getHeight());
+        this.minCols = -nrColumns;
+        this.maxCols = nrColumns;
+        this.minRows = -nrRows;
+        this.maxRows = nrRows;
+
+        this.minimumRenderZ = -nrRows - 2*(maxRenderY - startY);
+        this.maximumRenderZ = nrRows + 2*(startY - minRenderY);
+
+        this.blockBounds.update(facing,
+                this.minCols, this.minimumRenderZ, this.minRows,
+                this.maxCols, this.maximumRenderZ, this.maxRows);
+        this.blockBounds.offset(startX, startY, startZ);
+        this.blockBounds.clampY(minRenderY, maxRenderY - 1);
+
+        // Which blocks are hidden depends on the view, so compute it again while rendering
+        if (this.visibility == null || this.visibility.getFacing() != facing) {
+            this.visibility = new MapSectionVisibility(facing);
+        } else {
+            this.visibility.clear();
+        }
+
+        this.sliceCursor = null;
+    }
+
+    public IsometricBlockSprites getSprites() {
+        return this.sprites;
+    }
+
+    /**
+     * Gets the range of block coordinates that could be drawn in the view.
+     * The same instance is updated when the view changes.
+     *
+     * @return block bounds
+     */
+    public MapBlockBounds getBlockBounds() {
+        return this.blockBounds;
+    }
+
+    public int getMinColumn() {
+        return this.minCols;
+    }
+
+    public int getMaxColumn() {
+        return this.maxCols;
+    }
+
+    public int getMinRow() {
+        return this.minRows;
+    }
+
+    public int getMaxRow() {
+        return this.maxRows;
+    }
+
+    /**
+     * Gets the depth of the first slice to render, at which the highest blocks
+     * at the top of the canvas are drawn
+     *
+     * @return minimum render depth
+     */
+    public int getMinimumRenderZ() {
+        return this.minimumRenderZ;
+    }
+
+    /**
+     * Gets the depth of the last slice to render, at which the lowest blocks
+     * at the bottom of the canvas are drawn
+     *
+     * @return maximum render depth
+     */
+    public int getMaximumRenderZ() {
+        return this.maximumRenderZ;
+    }
+
+    public MapSectionFingerprints getFingerprints() {
+        return this.fingerprints;
+    }
+
+    /**
+     * Sets the fingerprints to record the chunk sections drawn from into
+     *
+     * @param fingerprints Fingerprints of the sections within {@link #getBlockBounds()}
+     */
+    public void setFingerprints(MapSectionFingerprints fingerprints) {
+        this.fingerprints = fingerprints;
+    }
+
+    public MapSectionVisibility getVisibility() {
+        return this.visibility;
+    }
+
+    /**
+     * Sets what is known about which blocks are hidden. Can be set to null to free it
+     * while not rendering, it is created again when the view is set up.
+     *
+     * @param visibility Visibility information for the facing of the view
+     */
+    public void setVisibility(MapSectionVisibility visibility) {
+        this.visibility = visibility;
+    }
+
+    public MapSeeThroughLayers getSeeThroughLayers() {
+        return this.seeThroughLayers;
+    }
+
+    /**
+     * Sets the see-through blocks drawn on every tile. Its limit decides how many see-through
+     * blocks are shown on top of each other, with a limit of 0 there is no limit.
+     *
+     * @param seeThroughLayers See-through layers, for the number of tiles of the view
+     */
+    public void setSeeThroughLayers(MapSeeThroughLayers seeThroughLayers) {
+        this.seeThroughLayers = seeThroughLayers;
+    }
+
+    /**
+     * Forgets where rendering of a slice was interrupted, so the next slice rendered starts
+     * at its first tile. Must be called when tiles that need drawing are added.
+     */
+    public void restartSlice() {
+        this.sliceCursor = null;
+    }
+
+    /**
+     * Draws a block at particular tile coordinates. The draw depth must have been set to
+     * the tile coordinate z (depth) before drawing.
+     *
+     * @param tx Tile x-coordinate (horizontal)
+     * @param ty Tile y-coordinate (vertical)
+     * @param tz Tile depth
+     * @param isRedraw Whether to redraw the block entirely, instead of on top the current contents
+     * @return result of the drawing operation
+     */
+    public DrawResult drawBlockTile(int tx, int ty, int tz, boolean isRedraw) {
+        IntVector3 b = MapUtil.screenTileToBlock(this.facing, tx, ty, tz);
+        if (b != null) {
+            return drawBlockAtTile(b, tx, ty, isRedraw);
+        } else {
+            return DrawResult.PARTIALLY_DRAWN;
+        }
+    }
+
+    /**
+     * Draws a block at particular tile coordinates. The draw depth must have been set to
+     * the tile coordinate z (depth) before drawing.
+     *
+     * @param relativeBlockCoords Coordinates relative to start block to draw
+     * @param tx Tile x-coordinate (horizontal)
+     * @param ty Tile y-coordinate (vertical)
+     * @param isRedraw Whether to redraw the block entirely, instead of on top the current contents
+     * @return result of the drawing operation
+     */
+    public DrawResult drawBlockAtTile(IntVector3 relativeBlockCoords, int tx, int ty, boolean isRedraw) {
+        int x = this.startX + relativeBlockCoords.x;
+        int y = this.startY + relativeBlockCoords.y;
+        int z = this.startZ + relativeBlockCoords.z;
+        if (y < this.minRenderY) {
+            return DrawResult.FULLY_DRAWN;
+        } else if (y >= this.maxRenderY) {
+            return DrawResult.PARTIALLY_DRAWN;
+        } else {
+            if (!this.cacheBlock(x, z)) {
+                return DrawResult.NOT_DRAWN;
+            }
+
+            // Blocks hidden behind fully opaque blocks don't have to be looked up or drawn
+            // The blocks in front were drawn before, and already cover the entire tile
+            if (this.isBlockHidden(relativeBlockCoords, x, y, z, tx, ty)) {
+                this.stats.addTileHidden();
+                return DrawResult.FULLY_DRAWN;
+            }
+
+            this.recordFingerprint(x, y, z);
+            BlockRenderOptions options = this.blockSource.getRenderOptions(x, y, z);
+            IsometricBlockSprites.Sprite sprite = this.sprites.getSprite(options, this.stats);
+
+            // Deep water is drawn as a single opaque sprite, instead of drawing all blocks below it
+            if (!sprite.isFullyOpaque && Maplands.getDeepWaterDepth() > 0) {
+                int depth = this.getWaterDepth(options.getBlockData(), x, y, z);
+                if (depth >= Maplands.getDeepWaterDepth()) {
+                    sprite = this.sprites.getDeepFluidSprite(sprite, depth);
+                }
+            }
+
+            // Once a tile shows the maximum number of see-through blocks, the last one is drawn opaque
+            // The see-through blocks in front are remembered, also when only this block is redrawn
+            if (this.seeThroughLayers.getLimit() > 0) {
+                int tileIndex = getTileIndex(tx, ty);
+                int tz = this.canvas.getDrawDepth();
+                boolean seeThrough = (!sprite.isFullyOpaque && sprite != this.sprites.AIR);
+                if (seeThrough && this.seeThroughLayers.isLimitReached(tileIndex, tz)) {
+                    sprite = this.sprites.getOpaqueSprite(sprite);
+                    seeThrough = false;
+                }
+                this.seeThroughLayers.set(tileIndex, tz, seeThrough);
+            }
+
+            if (sprite != this.sprites.AIR || !isRedraw) {
+                int draw_x = this.zoom.getDrawX(tx) + (this.canvas.getWidth() >> 1);
+                int draw_y = this.zoom.getDrawY(ty) + (this.canvas.getHeight() >> 1);
+
+                MapTexture texture = sprite.texture;
+                this.canvas.draw(texture, draw_x, draw_y);
+                this.stats.addTileDrawn();
+                if (sprite.isFullyOpaque) {
+                    // Fully opaque sprite, no need to check
+                    return DrawResult.FULLY_DRAWN;
+                } else {
+                    // Ask canvas whether any more pixels remain to be drawn
+                    return this.canvas.hasMoreDepth(draw_x, draw_y, texture.getWidth(), texture.getHeight()) ?
+                            DrawResult.PARTIALLY_DRAWN : DrawResult.FULLY_DRAWN;
+                }
+            } else {
+                return DrawResult.PARTIALLY_DRAWN;
+            }
+        }
+    }
+
+    /**
+     * Renders a single depth level onto the canvas. If the deadline passes while
+     * drawing the tiles, rendering stops and continues at the same tile the next
+     * time this slice is rendered.
+     *
+     * @param tiles The tiles that still need drawing. Tiles that are fully drawn are removed.
+     * @param depth The depth to render (same as z-coordinate of the tile)
+     * @param deadline System.nanoTime() at which to interrupt rendering
+     * @return result of drawing the slice
+     */
+    public DrawResult renderSlice(Linked2DTileSet tiles, int depth, long deadline) {
+        this.canvas.setDrawDepth(depth);
+        boolean mapIsFullyDrawn = true;
+        boolean sliceHasNotDrawnTiles = false;
+
+        {
+            Linked2DTileList list = tiles.getValidTiles(depth);
+            Linked2DTile current = list.head;
+
+            // Continue where rendering of this slice was interrupted, if nothing changed since
+            if (this.sliceCursor != null &&
+                this.sliceCursorTiles == tiles &&
+                this.sliceCursorDepth == depth &&
+                this.sliceCursor.isSet())
+            {
+                current = this.sliceCursor;
+                mapIsFullyDrawn = this.sliceCursorFullyDrawn;
+                sliceHasNotDrawnTiles = this.sliceCursorHasNotDrawnTiles;
+            } else {
+                this.stats.addSlice();
+            }
+            this.sliceCursor = null;
+
+            int tilesUntilTimeCheck = TILES_PER_TIME_CHECK;
+            while ((current = current.next) != list.tail) {
+                switch (drawBlockAtTile(current.toBlock(this.facing, depth), current.x, current.y, true)) {
+                case NOT_DRAWN:
+                    sliceHasNotDrawnTiles = true;
+                    this.stats.addNotDrawnRetry();
+                    break;
+                case PARTIALLY_DRAWN:
+                    mapIsFullyDrawn = false;
+                    break;
+                case FULLY_DRAWN:
+                    // Fully covered. No longer render this tile!
+                    current = current.remove();
+                    break;
+                }
+
+                // Check the time every few tiles, and remember where to continue when out of time
+                if (--tilesUntilTimeCheck == 0) {
+                    tilesUntilTimeCheck = TILES_PER_TIME_CHECK;
+                    if (current.next != list.tail && System.nanoTime() >= deadline) {
+                        this.sliceCursor = current;
+                        this.sliceCursorTiles = tiles;
+                        this.sliceCursorDepth = depth;
+                        this.sliceCursorFullyDrawn = mapIsFullyDrawn;
+                        this.sliceCursorHasNotDrawnTiles = sliceHasNotDrawnTiles;
+                        return DrawResult.INTERRUPTED;
+                    }
+                }
+            }
+        }
+
+        if (sliceHasNotDrawnTiles) {
+            return DrawResult.NOT_DRAWN;
+        } else if (mapIsFullyDrawn) {
+            return DrawResult.FULLY_DRAWN;
+        } else {
+            return DrawResult.PARTIALLY_DRAWN;
+        }
+    }
+
+    /**
+     * Records the fingerprint of the chunk section of a block that is drawn, if not already
+     * recorded. The chunk must be loaded.
+     *
+     * @param x Block x-coordinate
+     * @param y Block y-coordinate
+     * @param z Block z-coordinate
+     */
+    private void recordFingerprint(int x, int y, int z) {
+        int index = this.fingerprints.getIndex(x, y, z);
+        if (index != -1 && !this.fingerprints.isComputed(index)) {
+            this.fingerprints.setHash(index, this.fingerprints.computeHash(this.blockSource, index));
+        }
+    }
+
+    private int getTileIndex(int tx, int ty) {
+        return (ty - this.minRows) * (this.maxCols - this.minCols + 1) + (tx - this.minCols);
+    }
+
+    /**
+     * Gets the number of water blocks in the column of water starting at a block and going down.
+     * Stops counting at {@link IsometricBlockSprites#MAX_FLUID_DEPTH}.
+     *
+     * @param blockData Block data of the block
+     * @param x Block x-coordinate
+     * @param y Block y-coordinate
+     * @param z Block z-coordinate
+     * @return water depth, 0 if the block is not water
+     */
+    private int getWaterDepth(BlockData blockData, int x, int y, int z) {
+        if (!blockData.isType(Material.WATER)) {
+            return 0;
+        }
+        int depth = 1;
+        while (depth < IsometricBlockSprites.MAX_FLUID_DEPTH &&
+               (y - depth) >= this.minRenderY &&
+               this.sprites.isWater(this.blockSource.getBlockData(x, y - depth, z)))
+        {
+            depth++;
+        }
+
+        // How deep the water is decides what is drawn, so changes below must be found too
+        this.recordFingerprint(x, y - depth, z);
+        return depth;
+    }
+
+    /**
+     * Checks whether a block is hidden behind the blocks in front of it. This is the case
+     * when all blocks in front of it that together cover its tile are fully opaque, and
+     * are drawn. The result is remembered until the block or a block in front of it changes.
+     *
+     * @param relativeBlockCoords Coordinates of the block relative to start block
+     * @param x Block x-coordinate
+     * @param y Block y-coordinate
+     * @param z Block z-coordinate
+     * @param tx Tile x-coordinate of the block
+     * @param ty Tile y-coordinate of the block
+     * @return True if the block is hidden and does not need to be drawn
+     */
+    private boolean isBlockHidden(IntVector3 relativeBlockCoords, int x, int y, int z, int tx, int ty) {
+        // At the smallest zoom level sprites are not masked, and don't cover each other exactly
+        if (this.zoom == ZoomLevel.ZOOM2) {
+            return false;
+        }
+
+        int state = this.visibility.get(x, y, z);
+        if (state != MapSectionVisibility.UNKNOWN) {
+            return state == MapSectionVisibility.HIDDEN;
+        }
+
+        int tz = MapUtil.blockToScreenTile(this.facing, relativeBlockCoords).z;
+        boolean hidden = true;
+        for (int i = 0; i < this.visibility.getOccluderCount(); i++) {
+            IntVector3 block = this.visibility.getOccluder(i);
+            IntVector3 tile = this.visibility.getOccluderTile(i);
+            int ox = x + block.x;
+            int oy = y + block.y;
+            int oz = z + block.z;
+            int otx = tx + tile.x;
+            int oty = ty + tile.y;
+            int otz = tz + tile.z;
+
+            // Blocks outside of the rendered area are not drawn, and hide nothing
+            if (oy < this.minRenderY || oy >= this.maxRenderY ||
+                otx < this.minCols || otx > this.maxCols || oty < this.minRows || oty > this.maxRows ||
+                otz < this.minimumRenderZ)
+            {
+                hidden = false;
+                break;
+            }
+
+            // Don't remember anything until the chunk is loaded
+            if (!this.cacheBlock(ox, oz)) {
+                return false;
+            }
+
+            if (!this.sprites.isOccluding(this.blockSource.getBlockData(ox, oy, oz))) {
+                hidden = false;
+                break;
+            }
+        }
+        this.visibility.set(x, y, z, hidden);
+        return hidden;
+    }
+}
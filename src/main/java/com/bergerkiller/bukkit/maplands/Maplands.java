@@ -1,11 +1,14 @@
 package com.bergerkiller.bukkit.maplands;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.Locale;
 import java.util.UUID;
 import java.util.logging.Level;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.World;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
@@ -20,11 +23,21 @@ import com.bergerkiller.bukkit.common.map.MapResourcePack;
 public class Maplands extends PluginBase {
     public static Maplands plugin;
     private static MapResourcePack resourcePack;
-    private static int maxRenderTime = 50;
     private static byte backgroundColor = MapColorPalette.COLOR_TRANSPARENT;
-    private static int minRenderY = 0;
-    private static int maxRenderY = 256;
+    private static final int CONFIG_VERSION = 1;
+    private static Integer minRenderY = null; // null for the height of the world
+    private static Integer maxRenderY = null;
+    private static int heldMarkerInterval = 1;
+    private static int framedMarkerInterval = 5;
+    private static boolean markerInterpolation = false;
+    private static int markerClusterRadius = 0;
+    private static int dormantDelay = 1200;
+    private static int deepWaterDepth = 8;
     private MapCanvasCache cache;
+    private WorldChangeJournal journal;
+    private MapRenderBudget renderBudget;
+    private MapAttachQueue attachQueue;
+    private MapLoadTest loadTest = null;
 
     public static MapResourcePack getResourcePack() {
         if (resourcePack == null) {
@@ -38,22 +51,135 @@ public class Maplands extends PluginBase {
         return cache;
     }
 
-    public static int getMaxRenderTime() {
-        return maxRenderTime;
+    public WorldChangeJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Gets the source of the blocks displays render for a world. This is the world
+     * itself, unless a load test is running on it.
+     *
+     * @param world World
+     * @return block source
+     */
+    public BlockSource getBlockSource(World world) {
+        if (this.loadTest != null && this.loadTest.getWorld() == world) {
+            return this.loadTest.getSource();
+        }
+        return BlockSource.of(world);
+    }
+
+    public MapAttachQueue getAttachQueue() {
+        return attachQueue;
+    }
+
+    public MapRenderBudget getRenderBudget() {
+        return renderBudget;
+    }
+
+    /**
+     * Gets the number of ticks between refreshing player markers on maps held by a player
+     *
+     * @return held marker refresh interval in ticks
+     */
+    public static int getHeldMarkerInterval() {
+        return heldMarkerInterval;
+    }
+
+    /**
+     * Gets the number of ticks between refreshing player markers on maps not held by
+     * any player, such as maps in item frames
+     *
+     * @return framed marker refresh interval in ticks
+     */
+    public static int getFramedMarkerInterval() {
+        return framedMarkerInterval;
+    }
+
+    public static boolean isMarkerInterpolationEnabled() {
+        return markerInterpolation;
+    }
+
+    public static int getMarkerClusterRadius() {
+        return markerClusterRadius;
+    }
+
+    /**
+     * Gets the number of ticks a map must have no viewers before it stops rendering
+     *
+     * @return dormant delay in ticks, 0 if maps never stop rendering
+     */
+    public static int getDormantDelay() {
+        return dormantDelay;
+    }
+
+    /**
+     * Gets the number of water blocks deep water must be to be drawn as a single opaque
+     * color, instead of drawing the blocks below it
+     *
+     * @return deep water depth, 0 if the blocks below water are always drawn
+     */
+    public static int getDeepWaterDepth() {
+        return deepWaterDepth;
     }
 
     public static byte getBackgroundColor() {
         return backgroundColor;
     }
 
-    public static int getMinRenderY() {
-        return minRenderY;
+    /**
+     * Gets the minimum Y-coordinate that is rendered of a block source. This is the
+     * bottom of the world, unless configured to be higher.
+     *
+     * @param source Block source, null if not known
+     * @return minimum block y-coordinate (inclusive)
+     */
+    public static int getMinRenderY(BlockSource source) {
+        if (source == null) {
+            return (minRenderY == null) ? 0 : minRenderY.intValue();
+        } else if (minRenderY == null) {
+            return source.getMinHeight();
+        } else {
+            return Math.max(source.getMinHeight(), minRenderY.intValue());
+        }
     }
 
-    public static int getMaxRenderY() {
-        return maxRenderY;
+    /**
+     * Gets the maximum Y-coordinate that is rendered of a block source. This is the
+     * top of the world, unless configured to be lower.
+     *
+     * @param source Block source, null if not known
+     * @return maximum block y-coordinate (exclusive)
+     */
+    public static int getMaxRenderY(BlockSource source) {
+        if (source == null) {
+            return (maxRenderY == null) ? 256 : maxRenderY.intValue();
+        } else if (maxRenderY == null) {
+            return source.getMaxHeight();
+        } else {
+            return Math.min(source.getMaxHeight(), maxRenderY.intValue());
+        }
     }
 
+	// Reads a render height from the configuration, null if 'auto'
+	// When upgrading, the defaults of older versions are turned into 'auto', as they don't fit worlds of 1.17 and later
+	private Integer getRenderYConfig(FileConfiguration config, String key, int oldDefault, boolean upgrade) {
+	    String value = config.get(key, "auto").trim();
+	    if (upgrade && value.equals(Integer.toString(oldDefault))) {
+	        config.set(key, "auto");
+	        return null;
+	    }
+	    if (value.equalsIgnoreCase("auto")) {
+	        return null;
+	    }
+	    try {
+	        return Integer.valueOf(value);
+	    } catch (NumberFormatException ex) {
+	        this.log(Level.WARNING, "Invalid " + key + " '" + value + "', using 'auto' instead");
+	        return null;
+	    }
+	}
+
 	@Override
 	public void enable() {
 	    plugin = this;
@@ -70,21 +196,86 @@ public class Maplands extends PluginBase {
 
 	    config.setHeader("maxRenderTime", "Specifies the maximum amount of time in milliseconds the plugin");
 	    config.addHeader("maxRenderTime", "may spend rendering the map during a single tick, per map");
-	    maxRenderTime = config.get("maxRenderTime", 50);
+	    int maxRenderTime = config.get("maxRenderTime", 50);
+
+	    config.setHeader("minRenderTime", "Specifies the amount of time in milliseconds all maps together may spend");
+	    config.addHeader("minRenderTime", "rendering during a single tick when the server is busy");
+	    int minRenderTime = config.get("minRenderTime", 2);
+
+	    config.setHeader("maxTotalRenderTime", "Specifies the maximum amount of time in milliseconds all maps together may");
+	    config.addHeader("maxTotalRenderTime", "spend rendering during a single tick. While the server keeps up, rendering time");
+	    config.addHeader("maxTotalRenderTime", "is slowly increased up to this limit, and decreased to minRenderTime when it doesn't");
+	    int maxTotalRenderTime = config.get("maxTotalRenderTime", 25);
+
+	    config.setHeader("targetTickTime", "Average time in milliseconds a server tick may take before rendering is slowed down");
+	    config.addHeader("targetTickTime", "Only used on servers that report the tick time, otherwise rendering slows down");
+	    config.addHeader("targetTickTime", "when the server no longer runs at 20 ticks per second");
+	    int targetTickTime = config.get("targetTickTime", 45);
+
+	    this.renderBudget = new MapRenderBudget(minRenderTime, maxRenderTime, maxTotalRenderTime, targetTickTime);
+	    this.renderBudget.start(this);
+
+	    config.setHeader("maxAttachPerTick", "Maximum number of maps that load from the cache and start rendering every tick");
+	    config.addHeader("maxAttachPerTick", "Limits lag when a lot of maps are loaded at once, such as after a restart");
+	    config.addHeader("maxAttachPerTick", "Maps held by players go first, then maps players can see, then all others");
+	    this.attachQueue = new MapAttachQueue(config.get("maxAttachPerTick", 4));
+	    this.attachQueue.start(this);
+
+	    // Configurations written before the version was stored are upgraded once
+	    // After that, the configured values are used as they are
+	    config.setHeader("configVersion", "Version of this configuration, used to upgrade it. Do not change!");
+	    boolean upgradeConfig = (config.get("configVersion", 0) < CONFIG_VERSION);
+	    config.set("configVersion", CONFIG_VERSION);
 
 	    config.setHeader("minRenderY", "Minimum Y-coordinate height that is rendered (inclusive)");
-	    config.addHeader("minRenderY", "Can be set to a negative number if supported (cubic chunks)");
-	    minRenderY = config.get("minRenderY", 0);
+	    config.addHeader("minRenderY", "Set to 'auto' to render down to the bottom of each world");
+	    minRenderY = getRenderYConfig(config, "minRenderY", 0, upgradeConfig);
 
 	    config.setHeader("maxRenderY", "Maximum Y-coordinate height that is rendered (exclusive)");
-	    config.addHeader("maxRenderY", "Can be set to a value beyond 256 if supported (cubic chunks)");
-	    maxRenderY = config.get("maxRenderY", 256);
+	    config.addHeader("maxRenderY", "Set to 'auto' to render up to the top of each world");
+	    maxRenderY = getRenderYConfig(config, "maxRenderY", 256, upgradeConfig);
+
+	    config.setHeader("heldMarkerInterval", "Number of ticks between refreshing the player markers of a map held by a player");
+	    heldMarkerInterval = Math.max(1, config.get("heldMarkerInterval", 1));
+
+	    config.setHeader("framedMarkerInterval", "Number of ticks between refreshing the player markers of a map that is not held,");
+	    config.addHeader("framedMarkerInterval", "such as maps in item frames. Higher values reduce marker updates sent to players");
+	    framedMarkerInterval = Math.max(1, config.get("framedMarkerInterval", 5));
+
+	    config.setHeader("markerInterpolation", "Whether player markers move smoothly in between refreshes, instead of jumping");
+	    config.addHeader("markerInterpolation", "This sends marker updates every tick while players move");
+	    markerInterpolation = config.get("markerInterpolation", false);
+
+	    config.setHeader("markerClusterRadius", "Pixel radius within which static and player markers are merged into a single marker");
+	    config.addHeader("markerClusterRadius", "showing the number of markers as caption. Set to 0 to disable clustering");
+	    markerClusterRadius = Math.max(0, config.get("markerClusterRadius", 0));
 
 	    config.setHeader("enableCache", "Whether map data is written to disk and restored when viewed again");
 	    config.addHeader("enableCache", "The rendered map data can be found inside the cache subdirectory");
 	    config.addHeader("enableCache", "Having this enabled will reduce server lag when a large display is initialized");
 	    cache.setEnabled(config.get("enableCache", true));
 
+	    config.setHeader("dormantDelay", "Number of ticks a map must have no viewers before it stops rendering and releases");
+	    config.addHeader("dormantDelay", "the chunks it keeps loaded. Its state is saved to the cache, and rendering continues");
+	    config.addHeader("dormantDelay", "when it is viewed again. Requires enableCache. Set to 0 to keep rendering maps at all times");
+	    dormantDelay = Math.max(0, config.get("dormantDelay", 1200));
+
+	    config.setHeader("deepWaterDepth", "Number of blocks deep water must be to be drawn as a single color that gets darker");
+	    config.addHeader("deepWaterDepth", "the deeper the water is, instead of drawing the blocks below the water");
+	    config.addHeader("deepWaterDepth", "This makes rendering oceans a lot faster. Set to 0 to always draw what is below water");
+	    deepWaterDepth = Math.max(0, config.get("deepWaterDepth", 8));
+
+	    config.setHeader("changeJournalSize", "Maximum number of changed chunk sections (16x16x16 blocks) remembered per world while maps are not viewed");
+	    config.addHeader("changeJournalSize", "When a map is viewed again, only the chunk sections that changed are re-rendered");
+	    config.addHeader("changeJournalSize", "If more chunk sections changed than this, the map is re-rendered entirely");
+	    config.addHeader("changeJournalSize", "Set to 0 to disable, which will cause maps to show the state they had when last viewed");
+	    this.journal = new WorldChangeJournal(config.get("changeJournalSize", 50000));
+	    try {
+	        this.journal.load(this.getDataFile("journal.dat"));
+	    } catch (IOException ex) {
+	        this.log(Level.SEVERE, "Failed to load the world change journal: " + ex.getMessage());
+	    }
+
 	    config.setHeader("backgroundColor", "The background color of maps showing the void in hexadecimal format, for example: '#1256FE'");
 	    config.addHeader("backgroundColor", "You can use the constants: transparent, black, white, red, green, blue");
 	    String backgroundColorName = config.get("backgroundColor", "transparent");
@@ -137,6 +328,24 @@ public class Maplands extends PluginBase {
 
 	@Override
 	public void disable() {
+	    this.renderBudget.stop();
+	    this.attachQueue.stop();
+
+	    if (this.loadTest != null) {
+	        this.loadTest.stop();
+	        this.loadTest = null;
+	    }
+
+	    // Make sure all cached map data and render progress is written to disk
+	    this.cache.close();
+
+	    // Remember block changes for maps that are not loaded right now
+	    try {
+	        this.journal.save(this.getDataFile("journal.dat"));
+	    } catch (IOException ex) {
+	        this.log(Level.SEVERE, "Failed to save the world change journal: " + ex.getMessage());
+	    }
+
 	    plugin = null;
 	    resourcePack = null;
 	}
@@ -192,7 +401,7 @@ public class Maplands extends PluginBase {
             boolean found = false;
             for (MaplandsDisplay display : MapDisplay.getAllDisplays(MaplandsDisplay.class)) {
                 if (displayUUID.equals(display.getProperties().getUniqueId())) {
-                    display.renderAll();
+                    display.refresh();
                     found = true;
                 }
             }
@@ -202,6 +411,123 @@ public class Maplands extends PluginBase {
                 sender.sendMessage("No maplands map was found with this UUID. Are the chunks loaded?");
             }
             return true;
+        } else if (args.length > 0 && args[0].equalsIgnoreCase("stats")) {
+            if (!Permission.COMMAND_STATS.has(sender)) {
+                sender.sendMessage(ChatColor.RED + "No permission to use the stats command!");
+                return true;
+            }
+
+            // The /map stats [uuid] command
+            if (args.length == 1) {
+                Collection<MaplandsDisplay> displays = MapDisplay.getAllDisplays(MaplandsDisplay.class);
+                int loadedChunks = 0;
+                int dormant = 0;
+                for (MaplandsDisplay display : displays) {
+                    loadedChunks += display.getLoadedChunkCount();
+                    if (display.isDormant()) {
+                        dormant++;
+                    }
+                }
+                sender.sendMessage(ChatColor.GOLD + "Maplands render statistics of all maps");
+                sender.sendMessage(ChatColor.YELLOW + "Displays: " + ChatColor.WHITE + displays.size() +
+                        ChatColor.YELLOW + "  Dormant: " + ChatColor.WHITE + dormant +
+                        ChatColor.YELLOW + "  Waiting to attach: " + ChatColor.WHITE + this.attachQueue.size() +
+                        ChatColor.YELLOW + "  Chunk tickets: " + ChatColor.WHITE + loadedChunks +
+                        ChatColor.YELLOW + "  Cached sprites: " + ChatColor.WHITE + IsometricBlockSprites.getCachedSpriteCount());
+                MapRenderStats.GLOBAL.sendTo(sender);
+                this.renderBudget.sendTo(sender);
+                for (MaplandsDisplay display : displays) {
+                    MapRenderStats stats = display.getStats();
+                    sender.sendMessage(ChatColor.GRAY + display.getProperties().getUniqueId().toString() +
+                            ChatColor.WHITE + " ticks=" + stats.getTicks() +
+                            " slices=" + stats.getSlices() +
+                            " tiles=" + stats.getTilesDrawn() +
+                            " chunks=" + display.getLoadedChunkCount() +
+                            (display.isDormant() ? " dormant" : ""));
+                }
+                sender.sendMessage("Use /map stats [uuid] for the statistics of a single map");
+                return true;
+            }
+
+            // Parse uuid
+            UUID displayUUID;
+            try {
+                displayUUID = UUID.fromString(args[1]);
+            } catch (IllegalArgumentException ex) {
+                sender.sendMessage("Not a UUID: " + args[1]);
+                return true;
+            }
+
+            // Find display with this uuid
+            boolean found = false;
+            for (MaplandsDisplay display : MapDisplay.getAllDisplays(MaplandsDisplay.class)) {
+                if (displayUUID.equals(display.getProperties().getUniqueId())) {
+                    display.sendStats(sender);
+                    found = true;
+                }
+            }
+            if (!found) {
+                sender.sendMessage("No maplands map was found with this UUID. Are the chunks loaded?");
+            }
+            return true;
+        } else if (args.length > 0 && args[0].equalsIgnoreCase("loadtest")) {
+            if (!Permission.COMMAND_LOADTEST.has(sender)) {
+                sender.sendMessage(ChatColor.RED + "No permission to use the loadtest command!");
+                return true;
+            }
+
+            // The /map loadtest [stop|changesPerTick] [seed] command
+            if (args.length == 1) {
+                if (this.loadTest == null) {
+                    sender.sendMessage("No load test is running");
+                    sender.sendMessage("/map loadtest [changesPerTick] [seed] to start one in your world");
+                    sender.sendMessage("All maps of the world will show generated terrain, and blocks are changed every tick");
+                } else {
+                    this.loadTest.sendStatus(sender);
+                    sender.sendMessage("/map loadtest stop to stop it");
+                }
+                return true;
+            }
+
+            if (args[1].equalsIgnoreCase("stop")) {
+                if (this.loadTest == null) {
+                    sender.sendMessage("No load test is running");
+                } else {
+                    this.loadTest.sendStatus(sender);
+                    MapLoadTest stopped = this.loadTest;
+                    this.loadTest = null;
+                    stopped.stop();
+                    sender.sendMessage("Load test stopped, maps show the world again");
+                }
+                return true;
+            }
+
+            if (!(sender instanceof Player)) {
+                sender.sendMessage("This command is only for players, the load test runs in the world of the player");
+                return true;
+            }
+
+            int changesPerTick;
+            long seed = 0L;
+            try {
+                changesPerTick = Math.max(0, Integer.parseInt(args[1]));
+                if (args.length >= 3) {
+                    seed = Long.parseLong(args[2]);
+                }
+            } catch (NumberFormatException ex) {
+                sender.sendMessage("Not a number: " + ex.getMessage());
+                return true;
+            }
+
+            if (this.loadTest != null) {
+                MapLoadTest stopped = this.loadTest;
+                this.loadTest = null;
+                stopped.stop();
+            }
+            this.loadTest = new MapLoadTest(this, ((Player) sender).getWorld(), seed, changesPerTick);
+            this.loadTest.start();
+            sender.sendMessage("Load test started. Use /map stats to view the render statistics");
+            return true;
         } else if (args.length > 0 && args[0].equalsIgnoreCase("give")) {
             if (!Permission.COMMAND_GIVE.has(sender)) {
                 sender.sendMessage(ChatColor.RED + "No permission to use the give command!");
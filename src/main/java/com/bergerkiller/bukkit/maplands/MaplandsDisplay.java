@@ -1,18 +1,25 @@
 package com.bergerkiller.bukkit.maplands;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
+import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.util.Vector;
 
 import com.bergerkiller.bukkit.common.Task;
+import com.bergerkiller.bukkit.common.bases.IntVector2;
 import com.bergerkiller.bukkit.common.bases.IntVector3;
 import com.bergerkiller.bukkit.common.events.map.MapClickEvent;
 import com.bergerkiller.bukkit.common.events.map.MapKeyEvent;
@@ -25,7 +32,6 @@ import com.bergerkiller.bukkit.common.map.MapFont;
 import com.bergerkiller.bukkit.common.map.MapSessionMode;
 import com.bergerkiller.bukkit.common.map.MapTexture;
 import com.bergerkiller.bukkit.common.map.MapFont.Alignment;
-import com.bergerkiller.bukkit.common.math.Vector2;
 import com.bergerkiller.bukkit.common.resources.SoundEffect;
 import com.bergerkiller.bukkit.common.map.MapPlayerInput.Key;
 import com.bergerkiller.bukkit.common.utils.FaceUtil;
@@ -35,7 +41,6 @@ import com.bergerkiller.bukkit.maplands.markers.MapMarkers;
 import com.bergerkiller.bukkit.maplands.menu.MenuButton;
 import com.bergerkiller.bukkit.maplands.menu.SettingsMenu;
 import com.bergerkiller.bukkit.maplands.util.Linked2DTile;
-import com.bergerkiller.bukkit.maplands.util.Linked2DTileList;
 import com.bergerkiller.bukkit.maplands.util.Linked2DTileSet;
 
 import net.md_5.bungee.api.ChatColor;
@@ -46,24 +51,51 @@ import net.md_5.bungee.api.ChatColor;
  */
 public class MaplandsDisplay extends MapDisplay {
     private final MapMarkers mapMarkers = new MapMarkers(this);
-    private final MaplandsDisplayChunks chunks = new MaplandsDisplayChunks();
+    private final MapRenderStats stats = MapRenderStats.create();
+    private final MaplandsDisplayChunks chunks = new MaplandsDisplayChunks(this);
+    private final MapSliceRenderer sliceRenderer = new MapSliceRenderer(this.stats) {
+        @Override
+        protected boolean cacheBlock(int x, int z) {
+            return chunks.cacheBlock(blockSource, x, z);
+        }
+    };
     private IsometricBlockSprites sprites;
     private ZoomLevel zoom;
     private BlockFace facing;
     private Block startBlock;
-    private final MapBlockBounds blockBounds = new MapBlockBounds();
+    private BlockSource blockSource;
+    private final MapBlockBounds blockBounds = this.sliceRenderer.getBlockBounds();
+    private MapProjection projection;
     private int menuShowTicks = 0;
     private int menuSelectIndex = 0;
     private int currentRenderZ;
     private int minimumRenderZ;
     private int maximumRenderZ;
     private int minCols, maxCols, minRows, maxRows;
+    private int minRenderY, maxRenderY;
+    private boolean emptySlicesSkipped = false; // whether slices above the highest block were skipped
+    private final HashMap<IntVector2, Integer> highestSections = new HashMap<IntVector2, Integer>();
     private Linked2DTileSet tilesThatNeedDrawing = new Linked2DTileSet();
     private final HashSet<IntVector3> dirtyTiles = new HashSet<IntVector3>();
+    // Chunk sections of which all blocks are redrawn, and the block of the first one to redraw next
+    private final LinkedHashSet<IntVector3> redrawSections = new LinkedHashSet<IntVector3>();
+    private int redrawSectionCursor = 0;
+    private int seeThroughLimit = 0;
+    private int verifyIndex = -1;
+    private final BitSet verifyChangedSections = new BitSet();
+    private MapRenderGroup renderGroup = null;
+    private boolean dormant = false;
+    private boolean attachPending = false;
+    private int ticksWithoutViewers = 0;
+    private int renderGroupVersion = 0;
     private MenuButton[] menuButtons;
     private MapTexture menu_bg;
     int rendertime = 0;
+    private static MapTexture menu_bg_texture = null; // shared by all displays, never changed
     private static final int MENU_DURATION = 200; // amount of ticks menu is kept open while idle
+    private static final int SECTION_REDRAW_SIZE = 18; // blocks of a changed section redrawn per axis, including neighbours
+    private static final int RENDER_ALL_BLOCKS_PER_TILE = 16; // rough amount of blocks drawn per tile when rendering everything
+    public static final int MAX_SEE_THROUGH_LIMIT = 100; // must fit in a byte
 
     @Override
     public void onAttached() {
@@ -95,7 +127,7 @@ public class MaplandsDisplay extends MapDisplay {
                     }
                 }
         };
-        this.menu_bg = MapTexture.loadResource(MaplandsDisplay.class, "/com/bergerkiller/bukkit/maplands/textures/menu_bg.png");
+        this.menu_bg = getMenuBackground();
         for (MenuButton button : this.menuButtons) {
             button.setDisplay(this);
         }
@@ -107,12 +139,10 @@ public class MaplandsDisplay extends MapDisplay {
 
         this.setSessionMode(MapSessionMode.FOREVER); // VIEWING for debug, FOREVER for release
 
-        // Load from cache if possible
-        if (Maplands.plugin.getCache().load(this.properties.getUniqueId(), this.getLayer())) {
-            this.render(RenderMode.FROM_CACHE);
-        } else {
-            this.render(RenderMode.INITIALIZE);
-        }
+        // Loading from cache and rendering starts once admitted by the attach queue,
+        // so that many displays attaching at once don't all do so in the same tick
+        this.attachPending = true;
+        Maplands.plugin.getAttachQueue().add(this);
 
         refreshMapDisplayLookup();
     }
@@ -121,13 +151,137 @@ public class MaplandsDisplay extends MapDisplay {
     public void onDetached() {
         refreshMapDisplayLookup();
 
-        // Save our current state to disk
-        Maplands.plugin.getCache().save(this.properties.getUniqueId(), this.getLayer());
+        // Write pending changes to the markers
+        this.mapMarkers.saveIfDirty();
+
+        // If rendering never started, the canvas has nothing worth saving
+        if (this.attachPending) {
+            this.attachPending = false;
+            Maplands.plugin.getAttachQueue().remove(this);
+            return;
+        }
+
+        // Dormant displays already saved everything when they became dormant
+        if (this.dormant) {
+            return;
+        }
+
+        this.stopRendering();
+    }
+
+    /**
+     * Gets whether this display is attached, but waits in the attach queue to start rendering
+     *
+     * @return True if waiting to start rendering
+     */
+    public boolean isAttachPending() {
+        return this.attachPending;
+    }
+
+    /**
+     * Called by the attach queue when this display may start rendering
+     */
+    void admitAttach() {
+        if (this.attachPending) {
+            this.attachPending = false;
+            this.startRendering();
+        }
+    }
+
+    private static MapTexture getMenuBackground() {
+        if (menu_bg_texture == null) {
+            menu_bg_texture = MapTexture.loadResource(MaplandsDisplay.class, "/com/bergerkiller/bukkit/maplands/textures/menu_bg.png");
+        }
+        return menu_bg_texture;
+    }
+
+    /**
+     * Starts rendering when attached or when waking up from being dormant
+     */
+    private void startRendering() {
+        // Load from cache if possible
+        // If another display already shows this exact view, copy from that one instead
+        if (MapRenderGroup.exists(this.getViewKey())) {
+            this.render(RenderMode.INITIALIZE);
+        } else if (Maplands.plugin.getCache().load(this.properties.getUniqueId(), this.getLayer())) {
+            this.render(RenderMode.FROM_CACHE);
+            this.replayWorldChanges();
+        } else {
+            this.render(RenderMode.INITIALIZE);
+        }
+    }
+
+    /**
+     * Stops rendering when detached or when becoming dormant. Saves what was rendered
+     * to the cache, so rendering can continue from there with {@link #startRendering()}.
+     */
+    private void stopRendering() {
+        // When following another display, make sure we store what it rendered up until now
+        MaplandsDisplay renderer = this.getRenderer();
+        if (renderer != this) {
+            this.copyCanvas(renderer);
+            this.properties.set("finishedRendering", renderer.properties.get("finishedRendering", false));
+        }
+
+        // Save our current state to disk, including how far along rendering is
+        Maplands.plugin.getCache().save(this.properties.getUniqueId(), this.getLayer(),
+                renderer.getRenderProgress(), (renderer.startBlock == null) ? null : renderer.sliceRenderer.getFingerprints(),
+                renderer.getSavedSeeThroughLayers());
+        this.leaveRenderGroup();
+
+        // Remember what block changes were rendered, to re-render changes after this on attach
+        WorldChangeJournal journal = Maplands.plugin.getJournal();
+        this.properties.set("journalEpoch", journal.getEpoch());
+        this.properties.set("journalSequence", journal.getSequence());
 
         // Release chunks we keep loaded
         chunks.clear();
     }
 
+    /**
+     * Makes this display dormant after it had no viewers for a while. Stops rendering,
+     * saves what was rendered to the cache, releases the chunks kept loaded and frees
+     * the depth buffer and the state used for rendering. Block changes are not tracked while dormant, they
+     * are replayed from the world change journal when woken up again.
+     */
+    private void sleep() {
+        this.mapMarkers.saveIfDirty();
+        this.stopRendering();
+
+        // The depth buffer is saved to the cache, and loaded again from there when woken up
+        // Until then, release it. The colors stay, as they are shown when viewed again.
+        this.getLayer().clearDepthBuffer();
+        this.tilesThatNeedDrawing = new Linked2DTileSet();
+        this.dirtyTiles.clear();
+        this.redrawSections.clear();
+        this.sliceRenderer.restartSlice();
+        this.sliceRenderer.setVisibility(null);
+        this.verifyIndex = -1;
+        this.verifyChangedSections.clear();
+        this.dormant = true;
+    }
+
+    /**
+     * Wakes this display up again after it was dormant, when it has a viewer again.
+     * The color and depth buffers are restored from the cache.
+     */
+    private void wake() {
+        // Like attaching, waits in the attach queue to load from the cache and start rendering
+        // Stays dormant until then, so block changes are replayed from the journal
+        this.attachPending = true;
+        Maplands.plugin.getAttachQueue().add(this);
+    }
+
+    /**
+     * Gets whether this display is dormant because it had no viewers for a while.
+     * Dormant displays do not render until they are viewed again.
+     *
+     * @return True if dormant
+     */
+    public boolean isDormant() {
+        return this.dormant;
+    }
+
     public MapDisplayProperties getProperties() {
         return super.properties;
     }
@@ -142,6 +296,11 @@ public class MaplandsDisplay extends MapDisplay {
     }
 
     private void render(RenderMode renderMode) {
+        // Rendering again, so no longer dormant or waiting to start
+        this.dormant = false;
+        this.attachPending = false;
+        this.ticksWithoutViewers = 0;
+
         // If no start block is initialized yet, always switch to mode INITIALIZE
         // This is used if a world is unloaded, but is then loaded again
         if (startBlock == null && renderMode != RenderMode.FROM_CACHE) {
@@ -154,6 +313,9 @@ public class MaplandsDisplay extends MapDisplay {
         int pz = properties.get("pz", 0);
         this.facing = properties.get("facing", BlockFace.NORTH_EAST);
         this.zoom = properties.get("zoom", ZoomLevel.DEFAULT);
+        this.seeThroughLimit = this.getSeeThroughLimit();
+        this.minRenderY = this.getMinRenderY();
+        this.maxRenderY = this.getMaxRenderY();
         String worldName = properties.get("mapWorld", "");
         if (worldName.length() == 0) {
             Player player = this.getOwners().get(0);
@@ -169,17 +331,46 @@ public class MaplandsDisplay extends MapDisplay {
         }
         World world = Bukkit.getWorld(worldName);
 
+        // If the view changes, stop sharing the render with other displays
+        MapRenderGroup.Key renderGroupKey = this.getViewKey();
+        if (this.renderGroup != null && !this.renderGroup.getKey().equals(renderGroupKey)) {
+            this.leaveRenderGroup();
+        }
+
         // If not loaded, display a 'not loaded' message
         if (world == null) {
+            this.leaveRenderGroup();
             this.renderWorldUnloaded(worldName);
             return;
         }
 
-        // Get the correct sprites
-        this.sprites = IsometricBlockSprites.getSprites(facing, this.zoom);
+        // A cache rendered for a different height range shows blocks that are no longer rendered,
+        // or misses blocks that are, so it can not be continued
+        // Caches written before the range was stored were rendered for the range 0 - 256
+        if (renderMode == RenderMode.FROM_CACHE &&
+            (properties.get("renderedMinY", 0) != this.minRenderY ||
+             properties.get("renderedMaxY", 256) != this.maxRenderY))
+        {
+            renderMode = RenderMode.INITIALIZE;
+        }
+        properties.set("renderedMinY", this.minRenderY);
+        properties.set("renderedMaxY", this.maxRenderY);
 
         // Start coordinates for the view
         this.startBlock = world.getBlockAt(px, py, pz);
+        this.blockSource = Maplands.plugin.getBlockSource(world);
+
+        // Compute the tiles, slices and blocks in view, and get the correct sprites
+        this.sliceRenderer.setView(this.getLayer(), this.blockSource, this.facing, this.zoom,
+                px, py, pz, this.minRenderY, this.maxRenderY);
+        this.sprites = this.sliceRenderer.getSprites();
+        this.minCols = this.sliceRenderer.getMinColumn();
+        this.maxCols = this.sliceRenderer.getMaxColumn();
+        this.minRows = this.sliceRenderer.getMinRow();
+        this.maxRows = this.sliceRenderer.getMaxRow();
+        this.minimumRenderZ = this.sliceRenderer.getMinimumRenderZ();
+        this.maximumRenderZ = this.sliceRenderer.getMaximumRenderZ();
+
         this.getLayer().setRelativeBrushMask(null);
         //this.getLayer().setDrawDepth(-VIEW_RANGE);
         //this.getLayer().fill(MapColorPalette.COLOR_RED);
@@ -188,23 +379,47 @@ public class MaplandsDisplay extends MapDisplay {
         }
         this.getLayer().setRelativeBrushMask(this.sprites.getBrushTexture());
 
-        // Requires updated facing/startblock/zoom info to work right
-        mapMarkers.viewChanged();
+        this.projection = new MapProjection(this.facing, this.sprites.getZoom(), px, py, pz,
+                this.getWidth(), this.getHeight());
 
-        int nrColumns = this.sprites.getZoom().getNumberOfColumns(this.getWidth());
-        int nrRows = this.sprites.getZoom().getNumberOfRows(this.getHeight());
-        this.minCols = -nrColumns;
-        this.maxCols = nrColumns;
-        this.minRows = -nrRows;
-        this.maxRows = nrRows;
+        // Requires updated facing/startblock/zoom/bounds info to work right
+        mapMarkers.viewChanged();
 
-        this.minimumRenderZ = -nrRows - 2*(Maplands.getMaxRenderY() - py);
-        this.maximumRenderZ = nrRows + 2*(py - Maplands.getMinRenderY());
+        // Redrawing tiles of the cache, or continuing its render, requires the see-through blocks
+        // counted while rendering it. If those are not known, render everything again.
+        MapSeeThroughLayers cachedSeeThroughLayers = null;
+        if (renderMode == RenderMode.FROM_CACHE && this.seeThroughLimit > 0) {
+            cachedSeeThroughLayers = Maplands.plugin.getCache().loadSeeThroughLayers(this.properties.getUniqueId());
+            if (cachedSeeThroughLayers == null ||
+                cachedSeeThroughLayers.getLimit() != this.seeThroughLimit ||
+                cachedSeeThroughLayers.getTileCount() != this.getTileCount())
+            {
+                cachedSeeThroughLayers = null;
+                renderMode = RenderMode.INITIALIZE;
+                this.getLayer().setRelativeBrushMask(null);
+                this.getLayer().clearDepthBuffer();
+                this.getLayer().setRelativeBrushMask(this.sprites.getBrushTexture());
+            }
+        }
 
-        this.blockBounds.update(this.facing,
-                this.minCols, this.minimumRenderZ, this.minRows,
-                this.maxCols, this.maximumRenderZ, this.maxRows);
-        this.blockBounds.offset(this.startBlock);
+        // Fingerprints of the world contents, used to find out what changed when re-rendering
+        // They are recorded while drawing, so blocks drawn before can not be verified
+        {
+            MapSectionFingerprints newFingerprints = new MapSectionFingerprints(worldName, this.blockBounds);
+            if (renderMode == RenderMode.FROM_CACHE) {
+                MapSectionFingerprints cached = Maplands.plugin.getCache().loadFingerprints(this.properties.getUniqueId());
+                if (cached != null && cached.isSameArea(newFingerprints)) {
+                    newFingerprints = cached;
+                } else {
+                    newFingerprints.markIncomplete();
+                }
+            } else if (renderMode == RenderMode.TRANSLATION) {
+                newFingerprints.markIncomplete();
+            }
+            this.sliceRenderer.setFingerprints(newFingerprints);
+            this.verifyIndex = -1;
+            this.verifyChangedSections.clear();
+        }
 
         if (renderMode == RenderMode.FROM_CACHE && this.properties.get("finishedRendering", false)) {
             this.currentRenderZ = this.maximumRenderZ + 1;
@@ -214,6 +429,20 @@ public class MaplandsDisplay extends MapDisplay {
         }
 
         this.dirtyTiles.clear();
+        this.redrawSections.clear();
+        this.redrawSectionCursor = 0;
+        this.sliceRenderer.restartSlice();
+
+        // Start counting the see-through blocks of every tile again, or continue counting those of the cache
+        int numTiles = this.getTileCount();
+        MapSeeThroughLayers seeThroughLayers = this.sliceRenderer.getSeeThroughLayers();
+        if (cachedSeeThroughLayers != null) {
+            this.sliceRenderer.setSeeThroughLayers(cachedSeeThroughLayers);
+        } else if (seeThroughLayers.getTileCount() != numTiles || seeThroughLayers.getLimit() != this.seeThroughLimit) {
+            this.sliceRenderer.setSeeThroughLayers(new MapSeeThroughLayers(numTiles, this.seeThroughLimit));
+        } else {
+            seeThroughLayers.clear();
+        }
 
         // Reset drawn tiles state when initializing / from cache
         // This will cause everything to render again
@@ -229,7 +458,334 @@ public class MaplandsDisplay extends MapDisplay {
             this.tilesThatNeedDrawing.setAll();
         }
 
+        // Continue rendering where we left off, if the cache stored this
+        if (renderMode == RenderMode.FROM_CACHE) {
+            MapRenderProgress progress = Maplands.plugin.getCache().loadProgress(this.properties.getUniqueId());
+            if (progress != null && progress.matches(worldName, px, py, pz, this.facing, this.zoom,
+                                                     this.minCols, this.maxCols, this.minRows, this.maxRows,
+                                                     this.minRenderY, this.maxRenderY))
+            {
+                this.tilesThatNeedDrawing.setAll(progress.tilesThatNeedDrawing);
+                this.currentRenderZ = Math.max(this.minimumRenderZ, progress.currentRenderZ);
+                this.dirtyTiles.addAll(progress.dirtyTiles);
+                this.redrawSections.addAll(progress.redrawSections);
+            }
+        }
+
+        this.emptySlicesSkipped = false;
+        this.highestSections.clear();
+        this.skipEmptySlices();
+
         rendertime = 0;
+
+        // Share the render with other displays showing the exact same view
+        if (this.renderGroup == null) {
+            this.joinRenderGroup(renderGroupKey);
+        } else if (this.renderGroup.isLeader(this)) {
+            this.renderGroup.markChanged();
+        } else {
+            this.copyColors(this.renderGroup.getLeader());
+            this.renderGroupVersion = this.renderGroup.getVersion();
+        }
+    }
+
+    private MapRenderGroup.Key getViewKey() {
+        return new MapRenderGroup.Key(properties.get("mapWorld", ""),
+                properties.get("px", 0), properties.get("py", 0), properties.get("pz", 0),
+                properties.get("facing", BlockFace.NORTH_EAST), properties.get("zoom", ZoomLevel.DEFAULT),
+                this.getWidth(), this.getHeight(), this.getSeeThroughLimit(),
+                this.getMinRenderY(), this.getMaxRenderY(), this.isLiveRefreshing());
+    }
+
+    private void joinRenderGroup(MapRenderGroup.Key key) {
+        this.renderGroup = MapRenderGroup.join(this, key);
+        if (this.renderGroup.isLeader(this)) {
+            this.renderGroup.markChanged();
+        } else {
+            this.copyColors(this.renderGroup.getLeader());
+            this.renderGroupVersion = this.renderGroup.getVersion();
+        }
+    }
+
+    /**
+     * Gets whether this display shows the exact same view as another display,
+     * and copies what that display renders instead of rendering itself.
+     *
+     * @return True if following another display's render
+     */
+    public boolean isFollowingRender() {
+        return this.renderGroup != null && !this.renderGroup.isLeader(this);
+    }
+
+    /**
+     * Gets the display that renders the view shown on this display. This is
+     * this display itself, unless it is following another display.
+     *
+     * @return rendering display
+     */
+    private MaplandsDisplay getRenderer() {
+        return (this.renderGroup == null) ? this : this.renderGroup.getLeader();
+    }
+
+    private void leaveRenderGroup() {
+        if (this.renderGroup != null) {
+            MapRenderGroup group = this.renderGroup;
+            this.renderGroup = null;
+            group.leave(this);
+        }
+    }
+
+    /**
+     * Called when the display that rendered the view for this display stops doing so.
+     * This display then continues rendering from where that display left off.
+     *
+     * @param display The display that rendered this view until now
+     */
+    void takeOverRendering(MaplandsDisplay display) {
+        this.copyCanvas(display);
+        this.currentRenderZ = display.currentRenderZ;
+        this.tilesThatNeedDrawing = new Linked2DTileSet(this.minCols, this.maxCols, this.minRows, this.maxRows);
+        this.tilesThatNeedDrawing.setAll(display.tilesThatNeedDrawing.toBitSet());
+        this.dirtyTiles.clear();
+        this.dirtyTiles.addAll(display.dirtyTiles);
+        this.redrawSections.clear();
+        this.redrawSections.addAll(display.redrawSections);
+        this.redrawSectionCursor = display.redrawSectionCursor;
+        this.sliceRenderer.setFingerprints(new MapSectionFingerprints(display.sliceRenderer.getFingerprints()));
+        this.verifyIndex = display.verifyIndex;
+        this.verifyChangedSections.clear();
+        this.verifyChangedSections.or(display.verifyChangedSections);
+        this.sliceRenderer.setSeeThroughLayers(new MapSeeThroughLayers(display.sliceRenderer.getSeeThroughLayers()));
+        if (display.sliceRenderer.getVisibility() != null) {
+            this.sliceRenderer.setVisibility(new MapSectionVisibility(display.sliceRenderer.getVisibility()));
+        } else {
+            this.sliceRenderer.setVisibility(new MapSectionVisibility(this.facing));
+        }
+        this.rendertime = display.rendertime;
+        this.properties.set("finishedRendering", display.properties.get("finishedRendering", false));
+    }
+
+    /**
+     * Copies only the colors rendered by another display onto this display. While following
+     * another display, the depth information of that display is used, and is only copied
+     * once this display starts rendering on its own.
+     *
+     * @param display The display to copy from
+     */
+    private void copyColors(MaplandsDisplay display) {
+        MapCanvas from = display.getLayer();
+        MapCanvas to = this.getLayer();
+        to.setRelativeBrushMask(null);
+        to.writePixels(0, 0, from.getWidth(), from.getHeight(), from.getBuffer());
+        if (this.sprites != null) {
+            to.setRelativeBrushMask(this.sprites.getBrushTexture());
+        }
+    }
+
+    /**
+     * Copies the color and depth information rendered by another display onto this display
+     *
+     * @param display The display to copy from
+     */
+    private void copyCanvas(MaplandsDisplay display) {
+        MapCanvas from = display.getLayer();
+        MapCanvas to = this.getLayer();
+        short[] fromDepth = from.getDepthBuffer();
+        if (fromDepth == null) {
+            return;
+        }
+
+        to.setRelativeBrushMask(null);
+        to.setDrawDepth(MapCanvas.MAX_DEPTH);
+        System.arraycopy(fromDepth, 0, to.getDepthBuffer(), 0, fromDepth.length);
+        to.writePixels(0, 0, from.getWidth(), from.getHeight(), from.getBuffer());
+        if (this.sprites != null) {
+            to.setRelativeBrushMask(this.sprites.getBrushTexture());
+        }
+    }
+
+    /**
+     * Re-renders the blocks that changed in the world while this display was not loaded.
+     * If the changes are not known anymore, the display is re-rendered entirely.
+     */
+    private void replayWorldChanges() {
+        if (this.startBlock == null || !this.isLiveRefreshing()) {
+            return;
+        }
+
+        WorldChangeJournal journal = Maplands.plugin.getJournal();
+        if (!journal.isEnabled()) {
+            return; // Changes aren't tracked, trust the cache
+        } else if (this.properties.get("journalEpoch", 0L).longValue() != journal.getEpoch()) {
+            this.renderAll(); // Changes are unknown, such as after a crash
+            return;
+        }
+
+        final World world = this.startBlock.getWorld();
+        long sequence = this.properties.get("journalSequence", 0L).longValue();
+        final List<IntVector3> sections = new ArrayList<IntVector3>();
+        boolean complete = journal.forEachChangeSince(world.getName(), sequence, packed -> {
+            sections.add(new IntVector3(WorldChangeJournal.unpackX(packed),
+                                        WorldChangeJournal.unpackY(packed),
+                                        WorldChangeJournal.unpackZ(packed)));
+        });
+        if (complete) {
+            this.redrawSections(sections);
+        } else {
+            this.renderAll();
+        }
+    }
+
+    /**
+     * Redraws all blocks of chunk sections that changed, and the blocks right next to them.
+     * The blocks are drawn over the next few ticks, sharing the render budget with the
+     * dirty tiles. If redrawing them all would take longer than rendering the entire
+     * display again, the display is re-rendered like {@link #renderAll()} instead.
+     *
+     * @param sections Section coordinates of the chunk sections that changed
+     */
+    private void redrawSections(Collection<IntVector3> sections) {
+        int numSections = this.redrawSections.size();
+        for (IntVector3 section : sections) {
+            if (isSectionWithinBounds(section) && !this.redrawSections.contains(section)) {
+                numSections++;
+            }
+        }
+
+        long redrawCost = (long) numSections * SECTION_REDRAW_SIZE * SECTION_REDRAW_SIZE * SECTION_REDRAW_SIZE;
+        long renderAllCost = (long) this.getTileCount() * RENDER_ALL_BLOCKS_PER_TILE;
+        if (redrawCost > renderAllCost) {
+            this.renderAll();
+            return;
+        }
+
+        for (IntVector3 section : sections) {
+            if (isSectionWithinBounds(section)) {
+                this.sliceRenderer.getFingerprints().markChanged(section.x << 4, section.y << 4, section.z << 4);
+                this.sliceRenderer.getVisibility().markSectionChanged(section.x, section.y, section.z);
+                this.redrawSections.add(section);
+            }
+        }
+    }
+
+    private boolean isSectionWithinBounds(IntVector3 section) {
+        // Includes the blocks right next to the section
+        int bx = section.x << 4;
+        int by = section.y << 4;
+        int bz = section.z << 4;
+        return (bx + 16) >= this.blockBounds.getMinX() && (bx - 1) <= this.blockBounds.getMaxX() &&
+               (by + 16) >= this.blockBounds.getMinY() && (by - 1) <= this.blockBounds.getMaxY() &&
+               (bz + 16) >= this.blockBounds.getMinZ() && (bz - 1) <= this.blockBounds.getMaxZ();
+    }
+
+    /**
+     * Gets the see-through blocks counted while rendering, to store in the cache
+     *
+     * @return see-through layers, or null if the number of see-through blocks is not limited
+     */
+    private MapSeeThroughLayers getSavedSeeThroughLayers() {
+        return (this.startBlock == null || this.seeThroughLimit <= 0) ? null : this.sliceRenderer.getSeeThroughLayers();
+    }
+
+    private int getTileCount() {
+        return (this.maxCols - this.minCols + 1) * (this.maxRows - this.minRows + 1);
+    }
+
+    /**
+     * Creates a snapshot of the current rendering progress, so that rendering
+     * can be resumed later from the cache.
+     *
+     * @return render progress, or null if rendering has finished
+     */
+    private MapRenderProgress getRenderProgress() {
+        if (this.startBlock == null || (this.currentRenderZ > this.maximumRenderZ && !this.hasDirtyTiles())) {
+            return null;
+        }
+        return new MapRenderProgress(this.startBlock.getWorld().getName(),
+                this.startBlock.getX(), this.startBlock.getY(), this.startBlock.getZ(),
+                this.facing, this.zoom,
+                this.minCols, this.maxCols, this.minRows, this.maxRows,
+                this.minRenderY, this.maxRenderY,
+                this.currentRenderZ, this.tilesThatNeedDrawing.toBitSet(), this.dirtyTiles, this.redrawSections);
+    }
+
+    /**
+     * Skips rendering the slices above the highest chunk section with blocks in view, as they
+     * only contain air. This saves rendering a lot of empty slices of flat worlds and of the end.
+     * Going down from the top, only the chunks of which the sections are shown on the map are
+     * checked. They are loaded like when rendering, and until they are this is tried again every tick.
+     */
+    private void skipEmptySlices() {
+        if (this.emptySlicesSkipped || this.currentRenderZ > this.maximumRenderZ) {
+            return;
+        }
+
+        int minCX = MathUtil.toChunk(this.blockBounds.getMinX());
+        int maxCX = MathUtil.toChunk(this.blockBounds.getMaxX());
+        int minCZ = MathUtil.toChunk(this.blockBounds.getMinZ());
+        int maxCZ = MathUtil.toChunk(this.blockBounds.getMaxZ());
+        int highestSectionY = MathUtil.toChunk(this.maxRenderY - 1);
+        int lowestSectionY = MathUtil.toChunk(this.minRenderY);
+        int sy;
+        for (sy = highestSectionY; sy >= lowestSectionY; sy--) {
+            boolean hasBlocks = false;
+            for (int cz = minCZ; cz <= maxCZ && !hasBlocks; cz++) {
+                for (int cx = minCX; cx <= maxCX && !hasBlocks; cx++) {
+                    if (!this.isSectionOnMap(cx, sy, cz)) {
+                        continue;
+                    }
+                    IntVector2 key = new IntVector2(cx, cz);
+                    Integer chunkHighestSectionY = this.highestSections.get(key);
+                    if (chunkHighestSectionY == null) {
+                        if (!this.chunks.cacheChunk(this.blockSource, cx, cz)) {
+                            return; // Try again next tick
+                        }
+                        chunkHighestSectionY = Integer.valueOf(this.blockSource.getHighestSectionY(cx, cz));
+                        this.highestSections.put(key, chunkHighestSectionY);
+                    }
+                    hasBlocks = (chunkHighestSectionY.intValue() >= sy);
+                }
+            }
+            if (hasBlocks) {
+                break;
+            }
+        }
+        this.emptySlicesSkipped = true;
+        this.highestSections.clear();
+
+        // Same as the minimum render depth, for a world as high as the highest section with blocks
+        int highestRenderY = Math.min((sy + 1) << 4, this.maxRenderY);
+        int startRenderZ = this.minRows - 2*(highestRenderY - this.startBlock.getY());
+        if (this.currentRenderZ < startRenderZ) {
+            this.currentRenderZ = Math.min(startRenderZ, this.maximumRenderZ + 1);
+            this.sliceRenderer.restartSlice();
+        }
+    }
+
+    /**
+     * Gets whether any of the blocks of a chunk section are shown on the map
+     *
+     * @param cx Section x-coordinate
+     * @param cy Section y-coordinate
+     * @param cz Section z-coordinate
+     * @return True if the section is shown on the map
+     */
+    private boolean isSectionOnMap(int cx, int cy, int cz) {
+        // Tile coordinates change linearly with block coordinates, so the corners of the
+        // section are at the edges of the area of tiles it is drawn on
+        int minTX = Integer.MAX_VALUE, maxTX = Integer.MIN_VALUE;
+        int minTY = Integer.MAX_VALUE, maxTY = Integer.MIN_VALUE;
+        for (int corner = 0; corner < 8; corner++) {
+            int dx = (cx << 4) + (((corner & 0x1) == 0) ? 0 : 15) - this.startBlock.getX();
+            int dy = (cy << 4) + (((corner & 0x2) == 0) ? 0 : 15) - this.startBlock.getY();
+            int dz = (cz << 4) + (((corner & 0x4) == 0) ? 0 : 15) - this.startBlock.getZ();
+            IntVector3 tile = MapUtil.blockToScreenTile(this.facing, dx, dy, dz);
+            minTX = Math.min(minTX, tile.x);
+            maxTX = Math.max(maxTX, tile.x);
+            minTY = Math.min(minTY, tile.y);
+            maxTY = Math.max(maxTY, tile.y);
+        }
+        return maxTX >= this.minCols && minTX <= this.maxCols && maxTY >= this.minRows && minTY <= this.maxRows;
     }
 
     /**
@@ -246,6 +802,15 @@ public class MaplandsDisplay extends MapDisplay {
         return this.startBlock != null && this.startBlock.getWorld() == world;
     }
 
+    /**
+     * Gets the range of block coordinates that could be displayed on this map
+     *
+     * @return block bounds
+     */
+    public MapBlockBounds getBlockBounds() {
+        return this.blockBounds;
+    }
+
     public boolean isBlockWithinBounds(int bx, int by, int bz) {
         return this.blockBounds.contains(bx, by, bz);
     }
@@ -256,25 +821,153 @@ public class MaplandsDisplay extends MapDisplay {
 
     public void onBlockChange(World world, int bx, int by, int bz) {
         // Check possibly in range before doing computationally expensive stuff
+        // Displays following another display's render don't have to handle changes
         if (this.startBlock != null
+                && !this.isFollowingRender()
+                && !this.dormant
                 && world == this.startBlock.getWorld()
                 && this.blockBounds.contains(bx, by, bz)
                 && this.isLiveRefreshing()
         ) {
-            int dx = bx - this.startBlock.getX();
-            int dy = by - this.startBlock.getY();
-            int dz = bz - this.startBlock.getZ();
-            IntVector3 tile = MapUtil.blockToScreenTile(this.facing, dx, dy, dz);
-            if (tile == null || tile.x < this.minCols || tile.x > this.maxCols || tile.y < this.minRows || tile.y > this.maxRows) {
-                return;
+            this.sliceRenderer.getFingerprints().markChanged(bx, by, bz);
+            this.sliceRenderer.getVisibility().markChanged(bx, by, bz);
+            this.markBlockDirty(bx, by, bz);
+        }
+    }
+
+    private void markBlockDirty(int bx, int by, int bz) {
+        int dx = bx - this.startBlock.getX();
+        int dy = by - this.startBlock.getY();
+        int dz = bz - this.startBlock.getZ();
+        IntVector3 tile = MapUtil.blockToScreenTile(this.facing, dx, dy, dz);
+        if (tile == null || tile.x < this.minCols || tile.x > this.maxCols || tile.y < this.minRows || tile.y > this.maxRows) {
+            return;
+        }
+        this.dirtyTiles.add(tile);
+    }
+
+    private boolean hasDirtyTiles() {
+        return !this.dirtyTiles.isEmpty() || !this.redrawSections.isEmpty();
+    }
+
+    /**
+     * Redraws the block at a tile. If this uncovers the blocks behind it, the area
+     * behind is scheduled for re-rendering.
+     *
+     * @param tx Tile x-coordinate
+     * @param ty Tile y-coordinate
+     * @param tz Tile depth
+     * @param redrawWaterSurface Whether to also redraw the surface of the water above the block
+     * @return True if the tile was redrawn, False if it must be tried again later
+     */
+    private boolean redrawTile(int tx, int ty, int tz, boolean redrawWaterSurface) {
+        getLayer().setDrawDepth(tz);
+        DrawResult tileResult = this.sliceRenderer.drawBlockTile(tx, ty, tz, false);
+        if (tileResult == DrawResult.NOT_DRAWN) {
+            this.stats.addNotDrawnRetry();
+            return false;
+        }
+        if (redrawWaterSurface) {
+            redrawWaterSurfaceAbove(tx, ty, tz);
+        }
+
+        // Redraw neighbours too
+        if (tileResult == DrawResult.PARTIALLY_DRAWN) {
+            for (int dtx = -1; dtx <= 1; dtx++) {
+                for (int dty = -2; dty <= 2; dty++) {
+                    invalidateTile(tx + dtx, ty + dty, tz);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Redraws the water surface above the block at a tile. How deep the water is decides
+     * how the surface is drawn, so a change below the surface changes the surface too.
+     *
+     * @param tx Tile x-coordinate of the block below the water
+     * @param ty Tile y-coordinate of the block below the water
+     * @param tz Tile depth of the block below the water
+     */
+    private void redrawWaterSurfaceAbove(int tx, int ty, int tz) {
+        if (Maplands.getDeepWaterDepth() <= 0) {
+            return;
+        }
+        IntVector3 b = MapUtil.screenTileToBlock(this.facing, tx, ty, tz);
+        if (b == null) {
+            return;
+        }
+        int x = this.startBlock.getX() + b.x;
+        int y = this.startBlock.getY() + b.y;
+        int z = this.startBlock.getZ() + b.z;
+        if (y < this.minRenderY || y >= this.maxRenderY || !this.chunks.cacheBlock(this.blockSource, x, z)) {
+            return;
+        }
+
+        int surfaceY = y;
+        while ((surfaceY + 1) < this.maxRenderY && (surfaceY - y) < IsometricBlockSprites.MAX_FLUID_DEPTH &&
+               this.sprites.isWater(this.blockSource.getBlockData(x, surfaceY + 1, z)))
+        {
+            surfaceY++;
+        }
+        if (surfaceY != y && this.blockBounds.contains(x, surfaceY, z)) {
+            IntVector3 tile = MapUtil.blockToScreenTile(this.facing, b.x, surfaceY - this.startBlock.getY(), b.z);
+            if (tile != null && tile.x >= this.minCols && tile.x <= this.maxCols && tile.y >= this.minRows && tile.y <= this.maxRows) {
+                redrawTile(tile.x, tile.y, tile.z, false);
+            }
+        }
+    }
+
+    /**
+     * Redraws the blocks of the chunk sections that changed, one block at a time,
+     * until the deadline passes. Continues with the next block the next tick.
+     *
+     * @param deadline System.nanoTime() at which to stop drawing
+     */
+    private void redrawChangedSections(long deadline) {
+        final int size = SECTION_REDRAW_SIZE;
+        final int numBlocks = size * size * size;
+        int tilesUntilTimeCheck = MapSliceRenderer.TILES_PER_TIME_CHECK;
+        Iterator<IntVector3> iter = this.redrawSections.iterator();
+        while (iter.hasNext()) {
+            IntVector3 section = iter.next();
+            int bx = (section.x << 4) - 1;
+            int by = (section.y << 4) - 1;
+            int bz = (section.z << 4) - 1;
+            while (this.redrawSectionCursor < numBlocks) {
+                int index = this.redrawSectionCursor++;
+                int x = bx + (index % size);
+                int z = bz + ((index / size) % size);
+                int y = by + (index / (size * size));
+                if (!this.blockBounds.contains(x, y, z)) {
+                    continue;
+                }
+                IntVector3 tile = MapUtil.blockToScreenTile(this.facing,
+                        x - this.startBlock.getX(), y - this.startBlock.getY(), z - this.startBlock.getZ());
+                if (tile == null || tile.x < this.minCols || tile.x > this.maxCols || tile.y < this.minRows || tile.y > this.maxRows) {
+                    continue;
+                }
+                // Water surfaces above the section are drawn depending on what is below them
+                if (!redrawTile(tile.x, tile.y, tile.z, index >= (numBlocks - size * size))) {
+                    this.dirtyTiles.add(tile); // Try again next tick
+                }
+                if (--tilesUntilTimeCheck == 0) {
+                    tilesUntilTimeCheck = MapSliceRenderer.TILES_PER_TIME_CHECK;
+                    if (System.nanoTime() >= deadline) {
+                        return;
+                    }
+                }
             }
-            this.dirtyTiles.add(tile);
+            iter.remove();
+            this.redrawSectionCursor = 0;
         }
     }
 
     private void invalidateTile(int tx, int ty, int tz) {
         if (tx >= this.minCols && tx <= this.maxCols && ty >= this.minRows && ty <= this.maxRows) {
             this.tilesThatNeedDrawing.set(tx, ty);
+            this.sliceRenderer.restartSlice();
             if (this.currentRenderZ > tz) {
                 this.currentRenderZ = tz;
             }
@@ -318,7 +1011,7 @@ public class MaplandsDisplay extends MapDisplay {
             // Re-render display. Also re-renders it if the world wasn't loaded, but is now.
             this.playSound(SoundEffect.EXTINGUISH);
             //this.getLayer().clear();
-            this.renderAll();
+            this.refresh();
         } else if (this.isLoaded()) {
             // No menu is shown. Simple navigation.
             if (event.getKey() == Key.UP) {
@@ -333,69 +1026,6 @@ public class MaplandsDisplay extends MapDisplay {
         }
     }
 
-    /**
-     * Draws a block at particular tile coordinates. The draw depth must have been set to
-     * the tile coordinate z (depth) before drawing.
-     * 
-     * @param tx Tile x-coordinate (horizontal)
-     * @param ty Tile y-coordinate (vertical)
-     * @param tz Tile depth
-     * @param isRedraw Whether to redraw the block entirely, instead of on top the current contents
-     * @return result of the drawing operation
-     */
-    public DrawResult drawBlockTile(int tx, int ty, int tz, boolean isRedraw) {
-        IntVector3 b = MapUtil.screenTileToBlock(this.facing, tx, ty, tz);
-        if (b != null) {
-            return drawBlockAtTile(b, tx, ty, isRedraw);
-        } else {
-            return DrawResult.PARTIALLY_DRAWN;
-        }
-    }
-
-    /**
-     * Draws a block at particular tile coordinates. The draw depth must have been set to
-     * the tile coordinate z (depth) before drawing.
-     * 
-     * @param relativeBlockCoords Coordinates relative to start block to draw
-     * @param tx Tile x-coordinate (horizontal)
-     * @param ty Tile y-coordinate (vertical)
-     * @param isRedraw Whether to redraw the block entirely, instead of on top the current contents
-     * @return result of the drawing operation
-     */
-    public DrawResult drawBlockAtTile(IntVector3 relativeBlockCoords, int tx, int ty, boolean isRedraw) {
-        int x = this.startBlock.getX() + relativeBlockCoords.x;
-        int y = this.startBlock.getY() + relativeBlockCoords.y;
-        int z = this.startBlock.getZ() + relativeBlockCoords.z;
-        if (y < Maplands.getMinRenderY()) {
-            return DrawResult.FULLY_DRAWN;
-        } else if (y >= Maplands.getMaxRenderY()) {
-            return DrawResult.PARTIALLY_DRAWN;
-        } else {
-            if (!this.chunks.cacheBlock(this.startBlock.getWorld(), x, z)) {
-                return DrawResult.NOT_DRAWN;
-            }
-
-            IsometricBlockSprites.Sprite sprite = this.sprites.getSprite(this.startBlock.getWorld(), x, y, z);
-            if (sprite != this.sprites.AIR || !isRedraw) {
-                int draw_x = sprites.getZoom().getDrawX(tx) + (this.getWidth() >> 1);
-                int draw_y = sprites.getZoom().getDrawY(ty) + (this.getHeight() >> 1);
-
-                MapTexture texture = sprite.texture;
-                getLayer().draw(texture, draw_x, draw_y);
-                if (sprite.isFullyOpaque) {
-                    // Fully opaque sprite, no need to check
-                    return DrawResult.FULLY_DRAWN;
-                } else {
-                    // Ask canvas whether any more pixels remain to be drawn
-                    return getLayer().hasMoreDepth(draw_x, draw_y, texture.getWidth(), texture.getHeight()) ?
-                            DrawResult.PARTIALLY_DRAWN : DrawResult.FULLY_DRAWN;
-                }
-            } else {
-                return DrawResult.PARTIALLY_DRAWN;
-            }
-        }
-    }
-
     public void hideMenu() {
         this.playSound(SoundEffect.PISTON_CONTRACT);
         menuShowTicks = 0;
@@ -462,6 +1092,45 @@ public class MaplandsDisplay extends MapDisplay {
                 .sendTo(recipient);
     }
 
+    /**
+     * Gets the render statistics of this display since it was attached
+     *
+     * @return render statistics
+     */
+    public MapRenderStats getStats() {
+        return this.stats;
+    }
+
+    /**
+     * Gets the number of chunks this display currently keeps loaded for rendering
+     *
+     * @return loaded chunk count
+     */
+    public int getLoadedChunkCount() {
+        return this.chunks.size();
+    }
+
+    /**
+     * Sends the render statistics and current render state of this display
+     *
+     * @param sender Recipient of the statistics
+     */
+    public void sendStats(CommandSender sender) {
+        sender.sendMessage(ChatColor.GOLD + "Display " + this.getProperties().getUniqueId() +
+                (this.isFollowingRender() ? " (copies render)" : "") +
+                (this.dormant ? " (dormant)" : ""));
+        if (this.startBlock != null) {
+            sender.sendMessage(ChatColor.YELLOW + "Render progress: " + ChatColor.WHITE +
+                    Math.min(this.currentRenderZ - this.minimumRenderZ, this.maximumRenderZ - this.minimumRenderZ + 1) +
+                    "/" + (this.maximumRenderZ - this.minimumRenderZ + 1) + " slices" +
+                    ChatColor.YELLOW + "  Dirty tiles: " + ChatColor.WHITE + this.dirtyTiles.size() +
+                    ChatColor.YELLOW + "  Changed sections: " + ChatColor.WHITE + this.redrawSections.size() +
+                    ChatColor.YELLOW + "  Chunk tickets: " + ChatColor.WHITE + this.chunks.size());
+        }
+        this.stats.sendTo(sender);
+        Maplands.plugin.getRenderBudget().sendTo(sender);
+    }
+
     /**
      * Gets the map marker configuration of this maplands display
      *
@@ -488,7 +1157,97 @@ public class MaplandsDisplay extends MapDisplay {
      * @param live Whether live refreshing is turned on
      */
     public void setLiveRefreshing(boolean live) {
+        if (this.isLiveRefreshing() == live) {
+            return;
+        }
         properties.set("liveRefresh", live);
+
+        // Only displays that refresh the same way show the same view, so move to the group that does
+        // When following, continue from what the display rendering this view rendered until now
+        if (this.renderGroup != null) {
+            MaplandsDisplay renderer = this.getRenderer();
+            this.leaveRenderGroup();
+            if (renderer != this) {
+                this.takeOverRendering(renderer);
+            }
+            this.joinRenderGroup(this.getViewKey());
+        }
+    }
+
+    /**
+     * Gets the maximum number of see-through blocks, like glass, leaves and water, a tile
+     * of this display shows. The last of them is drawn opaque, and nothing behind it is drawn.
+     *
+     * @return see-through limit, 0 if there is no limit
+     */
+    public int getSeeThroughLimit() {
+        return properties.get("seeThroughLimit", 0);
+    }
+
+    /**
+     * Sets the maximum number of see-through blocks, like glass, leaves and water, a tile
+     * of this display shows, and re-renders the display. Lower limits render faster.
+     *
+     * @param limit See-through limit, 0 for no limit
+     */
+    public void setSeeThroughLimit(int limit) {
+        properties.set("seeThroughLimit", MathUtil.clamp(limit, 0, MAX_SEE_THROUGH_LIMIT));
+        this.renderAll();
+    }
+
+    /**
+     * Gets the lowest block y-coordinate this display renders. This is the bottom of the
+     * world or the minRenderY of the configuration, unless the display is set to clip off more.
+     *
+     * @return minimum block y-coordinate (inclusive)
+     */
+    public int getMinRenderY() {
+        int minRenderY = Maplands.getMinRenderY(this.getViewBlockSource());
+        return Math.max(minRenderY, properties.get("clipMinY", minRenderY));
+    }
+
+    /**
+     * Gets the block y-coordinate above the highest block this display renders. This is the
+     * top of the world or the maxRenderY of the configuration, unless the display is set to
+     * clip off more.
+     *
+     * @return maximum block y-coordinate (exclusive)
+     */
+    public int getMaxRenderY() {
+        int maxRenderY = Maplands.getMaxRenderY(this.getViewBlockSource());
+        int clipMaxY = properties.get("clipMaxY", maxRenderY - 1);
+        return Math.max(Math.min(maxRenderY, clipMaxY + 1), this.getMinRenderY() + 1);
+    }
+
+    // Gets the block source of the world shown, also when not rendering it yet
+    private BlockSource getViewBlockSource() {
+        World world = Bukkit.getWorld(properties.get("mapWorld", ""));
+        return (world == null) ? null : Maplands.plugin.getBlockSource(world);
+    }
+
+    /**
+     * Sets the lowest block y-coordinate this display renders, and re-renders the display.
+     * Blocks below it are not drawn, which is useful for skipping bedrock or the void.
+     *
+     * @param y Minimum block y-coordinate (inclusive), null to render down to the bottom
+     *          of the world
+     */
+    public void setClipMinY(Integer y) {
+        properties.set("clipMinY", y);
+        this.renderAll();
+    }
+
+    /**
+     * Sets the highest block y-coordinate this display renders, and re-renders the display.
+     * Blocks above it are not drawn, which shows what is below roofs, such as in the nether
+     * or in caves.
+     *
+     * @param y Maximum block y-coordinate (inclusive), null to render up to the top
+     *          of the world
+     */
+    public void setClipMaxY(Integer y) {
+        properties.set("clipMaxY", y);
+        this.renderAll();
     }
 
     /**
@@ -499,6 +1258,23 @@ public class MaplandsDisplay extends MapDisplay {
         this.render(RenderMode.INITIALIZE);
     }
 
+    /**
+     * Re-renders the blocks shown on the display that changed in the world since they
+     * were rendered. Changes are found by comparing the fingerprints of the chunk sections
+     * that were drawn from over the next few ticks. If what was rendered is not known, or
+     * redrawing what changed costs more, the entire display is re-rendered like {@link #renderAll()}.
+     */
+    public void refresh() {
+        if (this.isFollowingRender()) {
+            this.renderGroup.getLeader().refresh();
+        } else if (this.startBlock == null || this.currentRenderZ <= this.maximumRenderZ || !this.sliceRenderer.getFingerprints().isComplete()) {
+            this.renderAll();
+        } else if (this.verifyIndex == -1) {
+            this.verifyIndex = 0;
+            this.verifyChangedSections.clear();
+        }
+    }
+
     /**
      * Gets the start block, which is the block the player was at when activating this maplands map.
      * 
@@ -508,6 +1284,16 @@ public class MaplandsDisplay extends MapDisplay {
         return this.startBlock;
     }
 
+    /**
+     * Gets the source of the blocks this display renders. This is normally the world
+     * of the start block, unless a load test is running on that world.
+     *
+     * @return block source, null if not loaded
+     */
+    public BlockSource getBlockSource() {
+        return this.blockSource;
+    }
+
     /**
      * Sets start block coordinates and world. Performs a translation of the map if possible, otherwise
      * re-renders the entire map.
@@ -573,6 +1359,13 @@ public class MaplandsDisplay extends MapDisplay {
         this.properties.set("py", old_y + dy);
         this.properties.set("pz", old_z + dz);
 
+        // The rendered view is going to change, stop sharing it with other displays
+        // When following, first make a copy of everything rendered so far, so it can be translated
+        if (this.isFollowingRender()) {
+            this.takeOverRendering(this.renderGroup.getLeader());
+        }
+        this.leaveRenderGroup();
+
         IntVector3 old_tile = MapUtil.blockToScreenTile(this.facing, 0, 0, 0);
         IntVector3 new_tile = MapUtil.blockToScreenTile(this.facing, dx, dy, dz);
 
@@ -646,6 +1439,15 @@ public class MaplandsDisplay extends MapDisplay {
         return this.facing;
     }
 
+    /**
+     * Gets the zoom level used when rendering the map
+     *
+     * @return zoom level
+     */
+    public ZoomLevel getZoom() {
+        return this.zoom;
+    }
+
     /**
      * Gets the exact tile coordinates of particular pixel coordinates
      * 
@@ -654,7 +1456,7 @@ public class MaplandsDisplay extends MapDisplay {
      * @return tile coordinates. Null if there is no tile here.
      */
     public IntVector3 getTileAt(int x, int y) {
-        int z = getLayer().getDepth(x, y);
+        int z = this.getRenderer().getLayer().getDepth(x, y);
         if (z == MapCanvas.MAX_DEPTH) {
             // No tile drawn here
             return null;
@@ -671,23 +1473,21 @@ public class MaplandsDisplay extends MapDisplay {
      * @return pixel coordinates on the screen, z is depth level
      */
     public Vector getScreenCoordinates(Vector position) {
-        int bx = position.getBlockX() - this.startBlock.getX();
-        int by = position.getBlockY() - this.startBlock.getY();
-        int bz = position.getBlockZ() - this.startBlock.getZ();
-        IntVector3 tile = MapUtil.blockToScreenTile(this.facing, bx, by, bz);
-        if (tile == null) {
-            return new Vector();
-        }
-        double sx = sprites.getZoom().getScreenX(tile.x) + (this.getWidth() >> 1);
-        double sy = sprites.getZoom().getScreenY(tile.y) + (this.getHeight() >> 1);
-
-        // Adjust for within-block coordinates
-        Vector2 inBlock = sprites.getZoom().getBlockPixelCoordinates(this.facing,
-                position.getX() - position.getBlockX() - 0.5,
-                position.getY() - position.getBlockY() - 0.5,
-                position.getZ() - position.getBlockZ() - 0.5);
+        MapProjection.Point point = this.projection.project(position.getX(), position.getY(), position.getZ(),
+                new MapProjection.Point());
+        return new Vector(point.x, point.y, point.depth);
+    }
 
-        return new Vector(sx + inBlock.x, sy + inBlock.y, tile.z);
+    /**
+     * Gets the projection of world coordinates onto the pixel coordinates of this display.
+     * Unlike {@link #getScreenCoordinates(Vector)} this does not create new objects for every
+     * position, and should be used when projecting many positions every tick.
+     * The projection changes when the view of the display changes.
+     *
+     * @return projection of the current view
+     */
+    public MapProjection getProjection() {
+        return this.projection;
     }
 
     /**
@@ -750,45 +1550,6 @@ public class MaplandsDisplay extends MapDisplay {
         this.getLayer(1).draw(text, x, y);
     }
 
-    /**
-     * Renders a single depth level onto the canvas
-     * 
-     * @param depth The depth to render (same as z-coordinate of the tile)
-     * @return result of drawing the slice
-     */
-    private DrawResult renderSlice(int depth) {
-        getLayer().setDrawDepth(depth);
-        boolean mapIsFullyDrawn = true;
-        boolean sliceHasNotDrawnTiles = false;
-
-        {
-            Linked2DTileList list = this.tilesThatNeedDrawing.getValidTiles(depth);
-            Linked2DTile current = list.head;
-            while ((current = current.next) != list.tail) {
-                switch (drawBlockAtTile(current.toBlock(this.facing, depth), current.x, current.y, true)) {
-                case NOT_DRAWN:
-                    sliceHasNotDrawnTiles = true;
-                    break;
-                case PARTIALLY_DRAWN:
-                    mapIsFullyDrawn = false;
-                    break;
-                case FULLY_DRAWN:
-                    // Fully covered. No longer render this tile!
-                    current = current.remove();
-                    break;
-                }
-            }
-        }
-
-        if (sliceHasNotDrawnTiles) {
-            return DrawResult.NOT_DRAWN;
-        } else if (mapIsFullyDrawn) {
-            return DrawResult.FULLY_DRAWN;
-        } else {
-            return DrawResult.PARTIALLY_DRAWN;
-        }
-    }
-
     @Override
     public void onRightClick(MapClickEvent event) {
         if (!event.getPlayer().isSneaking()) {
@@ -802,6 +1563,27 @@ public class MaplandsDisplay extends MapDisplay {
         // that are not sneaking and have permission to edit
         updateCheckHolding();
 
+        // Wait until admitted by the attach queue
+        if (this.attachPending) {
+            Maplands.plugin.getAttachQueue().update(this);
+            return;
+        }
+
+        // Stop rendering when nobody viewed the map for a while, and continue once someone does
+        if (this.hasViewers()) {
+            this.ticksWithoutViewers = 0;
+            if (this.dormant) {
+                this.wake();
+            }
+        } else if (!this.dormant && ++this.ticksWithoutViewers >= Maplands.getDormantDelay() &&
+                   Maplands.getDormantDelay() > 0 && Maplands.plugin.getCache().isEnabled())
+        {
+            this.sleep();
+        }
+        if (this.dormant) {
+            return;
+        }
+
         // If not loaded, do nothing
         if (this.startBlock == null) {
             return;
@@ -828,50 +1610,100 @@ public class MaplandsDisplay extends MapDisplay {
         }
 
         // Refresh displayed markers
+        long phaseStart = System.nanoTime();
         this.mapMarkers.update();
+        long markerNanos = System.nanoTime() - phaseStart;
 
         // Unload chunks we haven't used in a while
+        phaseStart = System.nanoTime();
         this.chunks.update();
+        long chunkNanos = System.nanoTime() - phaseStart;
 
-        // Re-render all dirty tiles
+        // When showing the same view as another display, copy what it rendered
+        if (this.isFollowingRender()) {
+            if (this.renderGroupVersion != this.renderGroup.getVersion()) {
+                this.renderGroupVersion = this.renderGroup.getVersion();
+                this.copyColors(this.renderGroup.getLeader());
+            }
+            this.stats.addTick(markerNanos, chunkNanos, 0L, 0L);
+            return;
+        }
+        boolean canvasChanged = false;
+        phaseStart = System.nanoTime();
+
+        // Once all chunks in view are loaded, the slices above the highest block can be skipped
+        this.skipEmptySlices();
+
+        // Drawing dirty tiles and slices shares the render budget of this tick
+        MapRenderBudget budget = Maplands.plugin.getRenderBudget();
+        long renderStart = phaseStart;
+        long deadline = 0L;
+        boolean usedBudget = false;
+        if (this.hasDirtyTiles() || this.currentRenderZ <= this.maximumRenderZ) {
+            deadline = budget.startRender(renderStart);
+            usedBudget = true;
+        }
+
+        // Re-render dirty tiles for as long as the render budget allows, the rest next tick
         // If they result in holes, schedule the area behind for re-rendering
         if (!dirtyTiles.isEmpty()) {
+            Object event = MaplandsEvents.beginDirtyTiles();
+            int tilesProcessed = 0;
+            int tilesUntilTimeCheck = MapSliceRenderer.TILES_PER_TIME_CHECK;
             Iterator<IntVector3> iter = this.dirtyTiles.iterator();
             while (iter.hasNext()) {
+                if (--tilesUntilTimeCheck == 0) {
+                    tilesUntilTimeCheck = MapSliceRenderer.TILES_PER_TIME_CHECK;
+                    if (System.nanoTime() >= deadline) {
+                        break;
+                    }
+                }
                 IntVector3 tile = (IntVector3) iter.next();
-                getLayer().setDrawDepth(tile.z);
-                DrawResult tileResult = drawBlockTile(tile.x, tile.y, tile.z, false);
-                if (tileResult == DrawResult.NOT_DRAWN) {
+                if (!redrawTile(tile.x, tile.y, tile.z, true)) {
                     continue; // Try again next tick
                 }
 
                 // Processed, remove the coordinate
                 iter.remove();
-
-                // Redraw neighbours too
-                if (tileResult == DrawResult.PARTIALLY_DRAWN) {
-                    for (int dtx = -1; dtx <= 1; dtx++) {
-                        for (int dty = -2; dty <= 2; dty++) {
-                            invalidateTile(tile.x + dtx, tile.y + dty, tile.z);
-                        }
-                    }
-                }
+                canvasChanged = true;
+                tilesProcessed++;
             }
+            MaplandsEvents.endDirtyTiles(event, this, tilesProcessed, this.dirtyTiles.size());
         }
 
-        // Render at most 50 ms / map / tick
-        long startTime = System.currentTimeMillis();
+        // With the time that remains, redraw the blocks of chunk sections that changed
+        if (!this.redrawSections.isEmpty() && System.nanoTime() < deadline) {
+            this.redrawChangedSections(deadline);
+            canvasChanged = true;
+        }
+
+        long dirtyTileNanos = System.nanoTime() - phaseStart;
+
+        // Render for as long as the render budget allows this tick
+        phaseStart = System.nanoTime();
         if (this.currentRenderZ <= this.maximumRenderZ) {
+            if (!usedBudget) {
+                renderStart = phaseStart;
+                deadline = budget.startRender(renderStart);
+                usedBudget = true;
+            }
             rendertime++;
+            canvasChanged = true;
+            Object event = MaplandsEvents.beginSliceRender();
+            int startRenderZ = this.currentRenderZ;
+            long startTilesDrawn = this.stats.getTilesDrawn();
             do {
-                DrawResult sliceResult = renderSlice(currentRenderZ);
+                DrawResult sliceResult = this.sliceRenderer.renderSlice(this.tilesThatNeedDrawing, currentRenderZ, deadline);
                 if (sliceResult == DrawResult.FULLY_DRAWN) {
                     this.currentRenderZ = this.maximumRenderZ + 1;
                     break;
                 } else if (sliceResult == DrawResult.NOT_DRAWN) {
                     break; // Try same slice again next tick
+                } else if (sliceResult == DrawResult.INTERRUPTED) {
+                    break; // Continue this slice next tick
                 }
-            } while (++this.currentRenderZ <= this.maximumRenderZ && (System.currentTimeMillis() - startTime) < Maplands.getMaxRenderTime());
+            } while (++this.currentRenderZ <= this.maximumRenderZ && System.nanoTime() < deadline);
+            MaplandsEvents.endSliceRender(event, this, startRenderZ, this.currentRenderZ, this.stats.getTilesDrawn() - startTilesDrawn);
 
             if (this.currentRenderZ > this.maximumRenderZ) {
                 // Fill all remaining holes with the desired background color
@@ -886,12 +1718,75 @@ public class MaplandsDisplay extends MapDisplay {
                 // Store in attributes that it has finished rendering
                 if (!properties.get("finishedRendering", false)) {
                     properties.set("finishedRendering", true);
-                    Maplands.plugin.getCache().save(this.properties.getUniqueId(), this.getLayer());
+                    Maplands.plugin.getCache().save(this.properties.getUniqueId(), this.getLayer(),
+                            null, this.sliceRenderer.getFingerprints(), this.getSavedSeeThroughLayers());
                 }
 
                 // CommonUtil.broadcast("Render time: " + rendertime + " ticks");
             }
         }
+
+        if (canvasChanged && this.renderGroup != null) {
+            this.renderGroup.markChanged();
+        }
+        this.stats.addTick(markerNanos, chunkNanos, dirtyTileNanos, System.nanoTime() - phaseStart);
+
+        // When done rendering and asked to refresh, verify the fingerprints with the remaining time
+        if (this.currentRenderZ > this.maximumRenderZ && !this.hasDirtyTiles() && this.verifyIndex != -1) {
+            if (!usedBudget) {
+                renderStart = System.nanoTime();
+                deadline = budget.startRender(renderStart);
+                usedBudget = true;
+            }
+            this.verifyFingerprints(deadline);
+        }
+        if (usedBudget) {
+            budget.finishRender(renderStart);
+        }
+    }
+
+    /**
+     * Verifies the fingerprints of the chunk sections drawn from after {@link #refresh()}
+     * was called, until the deadline passes. Continues with the next section the next tick.
+     *
+     * @param deadline System.nanoTime() at which to stop verifying
+     */
+    private void verifyFingerprints(long deadline) {
+        MapSectionFingerprints fingerprints = this.sliceRenderer.getFingerprints();
+        while (System.nanoTime() < deadline) {
+            int index = fingerprints.getNextComputed(this.verifyIndex);
+            if (index == -1) {
+                this.finishVerify();
+                return;
+            }
+
+            if (!this.chunks.cacheChunk(this.blockSource, fingerprints.getSectionX(index), fingerprints.getSectionZ(index))) {
+                this.verifyIndex = index;
+                return; // Try again next tick
+            }
+
+            if (fingerprints.getHash(index) != fingerprints.computeHash(this.blockSource, index)) {
+                this.verifyChangedSections.set(index);
+            }
+            this.verifyIndex = index + 1;
+        }
+    }
+
+    private void finishVerify() {
+        this.verifyIndex = -1;
+
+        // Redraw all blocks of the sections that changed, unless rendering everything is faster
+        MapSectionFingerprints fingerprints = this.sliceRenderer.getFingerprints();
+        List<IntVector3> sections = new ArrayList<IntVector3>(this.verifyChangedSections.cardinality());
+        for (int index = this.verifyChangedSections.nextSetBit(0); index >= 0;
+             index = this.verifyChangedSections.nextSetBit(index + 1))
+        {
+            sections.add(new IntVector3(fingerprints.getSectionX(index),
+                                        fingerprints.getSectionY(index),
+                                        fingerprints.getSectionZ(index)));
+        }
+        this.verifyChangedSections.clear();
+        this.redrawSections(sections);
     }
 
     // Refreshed automatically and cached
@@ -925,6 +1820,8 @@ public class MaplandsDisplay extends MapDisplay {
         /** Tile is partially drawn, blocks behind the current block need drawing */
         PARTIALLY_DRAWN,
         /** Tile wasn't drawn because the chunk isn't loaded yet, and needs drawn again */
-        NOT_DRAWN
+        NOT_DRAWN,
+        /** Slice rendering ran out of time, and continues where it stopped next tick */
+        INTERRUPTED
     }
 }
@@ -4,22 +4,34 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
-import org.bukkit.World;
-
 import com.bergerkiller.bukkit.common.bases.IntVector2;
-import com.bergerkiller.bukkit.common.chunk.ForcedChunk;
 import com.bergerkiller.bukkit.common.utils.MathUtil;
-import com.bergerkiller.bukkit.common.utils.WorldUtil;
 
 /**
  * Asynchronously loads chunks needed to render a map
  */
 public class MaplandsDisplayChunks {
-    private World world = null;
+    private final MaplandsDisplay display;
+    private final MapRenderStats stats;
+    private BlockSource source = null;
     private final Map<IntVector2, LoadedChunk> cache = new HashMap<IntVector2, LoadedChunk>();
     private LoadedChunk lastValue = null;
     private int ticks = 0;
 
+    public MaplandsDisplayChunks(MaplandsDisplay display) {
+        this.display = display;
+        this.stats = display.getStats();
+    }
+
+    /**
+     * Gets the number of chunks currently kept loaded
+     *
+     * @return loaded chunk count
+     */
+    public int size() {
+        return cache.size();
+    }
+
     public void update() {
         lastValue = null;
         ticks++;
@@ -34,23 +46,32 @@ public class MaplandsDisplayChunks {
         }
     }
 
-    public boolean cacheBlock(World world, int x, int z) {
-        return cacheChunk(world, MathUtil.toChunk(x), MathUtil.toChunk(z));
+    public boolean cacheBlock(BlockSource source, int x, int z) {
+        return cacheChunk(source, MathUtil.toChunk(x), MathUtil.toChunk(z));
     }
 
-    public boolean cacheChunk(World world, int x, int z) {
-        if (this.world != world) {
-            this.world = world;
+    public boolean cacheChunk(BlockSource source, int x, int z) {
+        if (!source.equals(this.source)) {
+            this.source = source;
             clear();
         }
 
         // If same as last value, return that instantly
         // Saves a lookup while scanning blocks
         if (lastValue != null && lastValue.getX() == x && lastValue.getZ() == z) {
+            stats.addChunkCacheLookup(true);
             return lastValue.checkLoaded(this.ticks);
         }
 
-        lastValue = cache.computeIfAbsent(new IntVector2(x, z), c -> new LoadedChunk(this.world, c.x, c.z, this.ticks));
+        IntVector2 key = new IntVector2(x, z);
+        lastValue = cache.get(key);
+        if (lastValue == null) {
+            lastValue = new LoadedChunk(this.display, this.source, x, z, this.ticks);
+            cache.put(key, lastValue);
+            stats.addChunkCacheLookup(false);
+        } else {
+            stats.addChunkCacheLookup(true);
+        }
         return lastValue.checkLoaded(this.ticks);
     }
 
@@ -64,11 +85,17 @@ public class MaplandsDisplayChunks {
 
     private static class LoadedChunk implements AutoCloseable {
         private static final int CLOSE_TIMEOUT = 20 * 60; // ~1 minute
-        public final ForcedChunk chunk;
+        private final MaplandsDisplay display;
+        private final BlockSource source;
+        public final BlockSource.Chunk chunk;
         public int timeout;
+        private Object loadEvent;
 
-        public LoadedChunk(World world, int x, int z, int ticks) {
-            this.chunk = WorldUtil.forceChunkLoaded(world, x, z);
+        public LoadedChunk(MaplandsDisplay display, BlockSource source, int x, int z, int ticks) {
+            this.display = display;
+            this.source = source;
+            this.loadEvent = MaplandsEvents.beginChunkLoad();
+            this.chunk = source.loadChunk(x, z);
             this.timeout = ticks + CLOSE_TIMEOUT;
         }
 
@@ -82,7 +109,14 @@ public class MaplandsDisplayChunks {
 
         public boolean checkLoaded(int ticks) {
             this.timeout = ticks + CLOSE_TIMEOUT;
-            return chunk.getChunkAsync().isDone();
+            if (!chunk.isLoaded()) {
+                return false;
+            }
+            if (this.loadEvent != null) {
+                MaplandsEvents.endChunkLoad(this.loadEvent, this.display, this.source.getName(), getX(), getZ());
+                this.loadEvent = null;
+            }
+            return true;
         }
 
         @Override
@@ -0,0 +1,355 @@
+package com.bergerkiller.bukkit.maplands;
+
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import org.bukkit.block.BlockFace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Emits Java Flight Recorder events for the work Maplands does, so that lag spikes in
+ * a recording can be traced back to a particular map. The events themselves are only
+ * loaded when JFR is available on the JVM. Other classes only use the static methods
+ * of this class, which do nothing when JFR is not available or the event is not
+ * being recorded. The begin methods return an event that must be passed to the
+ * matching end method, which can be null.
+ */
+public final class MaplandsEvents {
+    private static final boolean AVAILABLE = detectAvailable();
+
+    private MaplandsEvents() {
+    }
+
+    private static boolean detectAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    public static Object beginSliceRender() {
+        return AVAILABLE ? Events.beginSliceRender() : null;
+    }
+
+    /**
+     * Ends the event of rendering a batch of slices during a tick
+     *
+     * @param event Event returned by {@link #beginSliceRender()}
+     * @param display Display that rendered
+     * @param startDepth Depth of the first slice rendered
+     * @param endDepth Depth of the slice rendering continues with next tick
+     * @param tilesDrawn Number of tiles drawn
+     */
+    public static void endSliceRender(Object event, MaplandsDisplay display, int startDepth, int endDepth, long tilesDrawn) {
+        if (event != null) {
+            Events.endSliceRender(event, display, startDepth, endDepth, tilesDrawn);
+        }
+    }
+
+    public static Object beginDirtyTiles() {
+        return AVAILABLE ? Events.beginDirtyTiles() : null;
+    }
+
+    /**
+     * Ends the event of re-rendering the tiles of blocks that changed
+     *
+     * @param event Event returned by {@link #beginDirtyTiles()}
+     * @param display Display that rendered
+     * @param tilesProcessed Number of dirty tiles that were drawn
+     * @param tilesRemaining Number of dirty tiles that could not be drawn yet
+     */
+    public static void endDirtyTiles(Object event, MaplandsDisplay display, int tilesProcessed, int tilesRemaining) {
+        if (event != null) {
+            Events.endDirtyTiles(event, display, tilesProcessed, tilesRemaining);
+        }
+    }
+
+    public static Object beginSpriteRender() {
+        return AVAILABLE ? Events.beginSpriteRender() : null;
+    }
+
+    /**
+     * Ends the event of rasterizing the isometric sprite of a block
+     *
+     * @param event Event returned by {@link #beginSpriteRender()}
+     * @param zoom Zoom level of the sprite
+     * @param facing Facing of the sprite
+     * @param block Description of the block rendered
+     */
+    public static void endSpriteRender(Object event, ZoomLevel zoom, BlockFace facing, Object block) {
+        if (event != null) {
+            Events.endSpriteRender(event, zoom, facing, block);
+        }
+    }
+
+    public static Object beginCacheLoad() {
+        return AVAILABLE ? Events.beginCacheLoad() : null;
+    }
+
+    /**
+     * Ends the event of loading the canvas of a map from the cache
+     *
+     * @param event Event returned by {@link #beginCacheLoad()}
+     * @param mapUUID UUID of the map
+     * @param fromDisk Whether the data had to be read from disk
+     * @param success Whether the canvas was loaded
+     */
+    public static void endCacheLoad(Object event, UUID mapUUID, boolean fromDisk, boolean success) {
+        if (event != null) {
+            Events.endCacheLoad(event, mapUUID, fromDisk, success);
+        }
+    }
+
+    public static Object beginCacheSave() {
+        return AVAILABLE ? Events.beginCacheSave() : null;
+    }
+
+    /**
+     * Ends the event of saving the canvas of a map to the cache
+     *
+     * @param event Event returned by {@link #beginCacheSave()}
+     * @param mapUUID UUID of the map
+     * @param toDisk True if this was the writing of the files on the background thread,
+     *               False if this was taking a snapshot of the canvas on the main thread
+     */
+    public static void endCacheSave(Object event, UUID mapUUID, boolean toDisk) {
+        if (event != null) {
+            Events.endCacheSave(event, mapUUID, toDisk);
+        }
+    }
+
+    public static Object beginChunkLoad() {
+        return AVAILABLE ? Events.beginChunkLoad() : null;
+    }
+
+    /**
+     * Ends the event of force-loading a chunk for rendering. The event lasts
+     * from when the chunk was requested until it finished loading.
+     *
+     * @param event Event returned by {@link #beginChunkLoad()}
+     * @param display Display that requested the chunk
+     * @param worldName Name of the world of the chunk
+     * @param cx Chunk X-coordinate
+     * @param cz Chunk Z-coordinate
+     */
+    public static void endChunkLoad(Object event, MaplandsDisplay display, String worldName, int cx, int cz) {
+        if (event != null) {
+            Events.endChunkLoad(event, display, worldName, cx, cz);
+        }
+    }
+
+    /**
+     * All the events. Only loaded when JFR is available.
+     */
+    private static final class Events {
+
+        private static Object begin(EventType type, Supplier<Event> constructor) {
+            if (!type.isEnabled()) {
+                return null;
+            }
+            Event event = constructor.get();
+            event.begin();
+            return event;
+        }
+
+        public static Object beginSliceRender() {
+            return begin(SliceRender.TYPE, SliceRender::new);
+        }
+
+        public static Object beginDirtyTiles() {
+            return begin(DirtyTiles.TYPE, DirtyTiles::new);
+        }
+
+        public static Object beginSpriteRender() {
+            return begin(SpriteRender.TYPE, SpriteRender::new);
+        }
+
+        public static Object beginCacheLoad() {
+            return begin(CacheLoad.TYPE, CacheLoad::new);
+        }
+
+        public static Object beginCacheSave() {
+            return begin(CacheSave.TYPE, CacheSave::new);
+        }
+
+        public static Object beginChunkLoad() {
+            return begin(ChunkLoad.TYPE, ChunkLoad::new);
+        }
+
+        public static void endSliceRender(Object event, MaplandsDisplay display, int startDepth, int endDepth, long tilesDrawn) {
+            SliceRender e = (SliceRender) event;
+            e.end();
+            if (e.shouldCommit()) {
+                e.setDisplay(display);
+                e.startDepth = startDepth;
+                e.endDepth = endDepth;
+                e.tilesDrawn = tilesDrawn;
+                e.commit();
+            }
+        }
+
+        public static void endDirtyTiles(Object event, MaplandsDisplay display, int tilesProcessed, int tilesRemaining) {
+            DirtyTiles e = (DirtyTiles) event;
+            e.end();
+            if (e.shouldCommit()) {
+                e.setDisplay(display);
+                e.tilesProcessed = tilesProcessed;
+                e.tilesRemaining = tilesRemaining;
+                e.commit();
+            }
+        }
+
+        public static void endSpriteRender(Object event, ZoomLevel zoom, BlockFace facing, Object block) {
+            SpriteRender e = (SpriteRender) event;
+            e.end();
+            if (e.shouldCommit()) {
+                e.zoom = zoom.name();
+                e.facing = facing.name();
+                e.block = String.valueOf(block);
+                e.commit();
+            }
+        }
+
+        public static void endCacheLoad(Object event, UUID mapUUID, boolean fromDisk, boolean success) {
+            CacheLoad e = (CacheLoad) event;
+            e.end();
+            if (e.shouldCommit()) {
+                e.displayUUID = mapUUID.toString();
+                e.fromDisk = fromDisk;
+                e.success = success;
+                e.commit();
+            }
+        }
+
+        public static void endCacheSave(Object event, UUID mapUUID, boolean toDisk) {
+            CacheSave e = (CacheSave) event;
+            e.end();
+            if (e.shouldCommit()) {
+                e.displayUUID = mapUUID.toString();
+                e.toDisk = toDisk;
+                e.commit();
+            }
+        }
+
+        public static void endChunkLoad(Object event, MaplandsDisplay display, String worldName, int cx, int cz) {
+            ChunkLoad e = (ChunkLoad) event;
+            e.end();
+            if (e.shouldCommit()) {
+                e.setDisplay(display);
+                e.world = worldName;
+                e.chunkX = cx;
+                e.chunkZ = cz;
+                e.commit();
+            }
+        }
+
+        /**
+         * Base class of events about the work done for a single display
+         */
+        @Category("Maplands")
+        @StackTrace(false)
+        public static abstract class DisplayEvent extends Event {
+            @Label("Display UUID")
+            public String displayUUID;
+            @Label("Zoom")
+            public String zoom;
+            @Label("Facing")
+            public String facing;
+
+            public void setDisplay(MaplandsDisplay display) {
+                this.displayUUID = display.getProperties().getUniqueId().toString();
+                this.zoom = (display.getZoom() == null) ? null : display.getZoom().name();
+                this.facing = (display.getFacing() == null) ? null : display.getFacing().name();
+            }
+        }
+
+        @Name("com.bergerkiller.maplands.SliceRender")
+        @Label("Slice Render")
+        @Description("Rendering of a batch of depth slices of a display during a tick")
+        public static final class SliceRender extends DisplayEvent {
+            public static final EventType TYPE = EventType.getEventType(SliceRender.class);
+            @Label("Start Depth")
+            public int startDepth;
+            @Label("End Depth")
+            public int endDepth;
+            @Label("Tiles Drawn")
+            public long tilesDrawn;
+        }
+
+        @Name("com.bergerkiller.maplands.DirtyTiles")
+        @Label("Dirty Tiles")
+        @Description("Re-rendering of the tiles of a display showing blocks that changed")
+        public static final class DirtyTiles extends DisplayEvent {
+            public static final EventType TYPE = EventType.getEventType(DirtyTiles.class);
+            @Label("Tiles Processed")
+            public int tilesProcessed;
+            @Label("Tiles Remaining")
+            public int tilesRemaining;
+        }
+
+        @Name("com.bergerkiller.maplands.ChunkLoad")
+        @Label("Chunk Load")
+        @Description("Force-loading of a chunk needed to render a display, until it is loaded")
+        public static final class ChunkLoad extends DisplayEvent {
+            public static final EventType TYPE = EventType.getEventType(ChunkLoad.class);
+            @Label("World")
+            public String world;
+            @Label("Chunk X")
+            public int chunkX;
+            @Label("Chunk Z")
+            public int chunkZ;
+        }
+
+        @Name("com.bergerkiller.maplands.SpriteRender")
+        @Label("Sprite Render")
+        @Description("Rasterization of the isometric sprite of a block")
+        @Category("Maplands")
+        @StackTrace(false)
+        public static final class SpriteRender extends Event {
+            public static final EventType TYPE = EventType.getEventType(SpriteRender.class);
+            @Label("Zoom")
+            public String zoom;
+            @Label("Facing")
+            public String facing;
+            @Label("Block")
+            public String block;
+        }
+
+        @Name("com.bergerkiller.maplands.CacheLoad")
+        @Label("Cache Load")
+        @Description("Loading of the canvas of a display from the map cache")
+        @Category("Maplands")
+        @StackTrace(false)
+        public static final class CacheLoad extends Event {
+            public static final EventType TYPE = EventType.getEventType(CacheLoad.class);
+            @Label("Display UUID")
+            public String displayUUID;
+            @Label("From Disk")
+            public boolean fromDisk;
+            @Label("Success")
+            public boolean success;
+        }
+
+        @Name("com.bergerkiller.maplands.CacheSave")
+        @Label("Cache Save")
+        @Description("Saving of the canvas of a display to the map cache")
+        @Category("Maplands")
+        @StackTrace(false)
+        public static final class CacheSave extends Event {
+            public static final EventType TYPE = EventType.getEventType(CacheSave.class);
+            @Label("Display UUID")
+            public String displayUUID;
+            @Label("To Disk")
+            public boolean toDisk;
+        }
+    }
+}
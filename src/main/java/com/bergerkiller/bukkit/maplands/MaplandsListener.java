@@ -7,6 +7,7 @@ import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockPhysicsEvent;
 import org.bukkit.event.block.BlockRedstoneEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 
 public class MaplandsListener implements Listener {
 
@@ -16,6 +17,7 @@ public class MaplandsListener implements Listener {
         int bx = event.getBlock().getX();
         int by = event.getBlock().getY();
         int bz = event.getBlock().getZ();
+        Maplands.plugin.getJournal().record(world.getName(), bx, by, bz);
         for (MaplandsDisplay display : MaplandsDisplay.getAllDisplays()) {
             if (display.isRenderingWorld(world)) {
                 display.onBlockChange(world, bx+1, by, bz);
@@ -31,6 +33,7 @@ public class MaplandsListener implements Listener {
 
     @EventHandler(priority = EventPriority.MONITOR)
     public void onBlockRedstone(BlockRedstoneEvent event) {
+        Maplands.plugin.getJournal().record(event.getBlock());
         for (MaplandsDisplay display : MaplandsDisplay.getAllDisplays()) {
             display.onBlockChange(event.getBlock());
         }
@@ -39,9 +42,15 @@ public class MaplandsListener implements Listener {
     @EventHandler(priority = EventPriority.MONITOR)
     public void onBlockInteracted(PlayerInteractEvent event) {
         if (event.getClickedBlock() != null) {
+            Maplands.plugin.getJournal().record(event.getClickedBlock());
             for (MaplandsDisplay display : MaplandsDisplay.getAllDisplays()) {
                 display.onBlockChange(event.getClickedBlock());
             }
         }
     }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        PlayerPositionSnapshot.forget(event.getWorld());
+    }
 }
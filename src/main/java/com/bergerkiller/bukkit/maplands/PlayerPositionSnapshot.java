@@ -0,0 +1,173 @@
+package com.bergerkiller.bukkit.maplands;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import com.bergerkiller.bukkit.common.utils.CommonUtil;
+import com.bergerkiller.bukkit.common.utils.MathUtil;
+
+/**
+ * Snapshot of the positions of all players on a world. It is taken at most once
+ * per tick and is shared by all displays showing the world. Players are sorted
+ * into a grid of chunk columns, so that displays can quickly find the players
+ * within their block bounds. Snapshots are forgotten when their world unloads,
+ * see {@link #forget(World)}.
+ */
+public final class PlayerPositionSnapshot {
+    private static final Map<UUID, PlayerPositionSnapshot> snapshots = new HashMap<UUID, PlayerPositionSnapshot>();
+    private final World world;
+    private final Location location;
+    private int tick;
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final Map<Player, Entry> byPlayer = new IdentityHashMap<Player, Entry>();
+    private final Map<Long, List<Entry>> grid = new HashMap<Long, List<Entry>>();
+
+    private PlayerPositionSnapshot(World world) {
+        this.world = world;
+        this.location = new Location(world, 0.0, 0.0, 0.0);
+        this.tick = CommonUtil.getServerTicks() - 1;
+    }
+
+    /**
+     * Gets the snapshot of the player positions on a world for the current tick
+     *
+     * @param world The world
+     * @return player position snapshot
+     */
+    public static PlayerPositionSnapshot of(World world) {
+        PlayerPositionSnapshot snapshot = snapshots.get(world.getUID());
+        if (snapshot == null || snapshot.world != world) {
+            snapshot = new PlayerPositionSnapshot(world);
+            snapshots.put(world.getUID(), snapshot);
+        }
+        snapshot.refresh();
+        return snapshot;
+    }
+
+    /**
+     * Forgets the snapshot of a world, so that the world and its players are
+     * no longer referenced. Called when the world unloads.
+     *
+     * @param world The world
+     */
+    public static void forget(World world) {
+        snapshots.remove(world.getUID());
+    }
+
+    private void refresh() {
+        int now = CommonUtil.getServerTicks();
+        if (this.tick == now) {
+            return;
+        }
+        this.tick = now;
+
+        this.byPlayer.clear();
+        this.grid.clear();
+        int count = 0;
+        for (Player player : this.world.getPlayers()) {
+            // Re-use entries of the previous tick
+            Entry entry;
+            if (count < this.entries.size()) {
+                entry = this.entries.get(count);
+            } else {
+                entry = new Entry();
+                this.entries.add(entry);
+            }
+            count++;
+
+            Location loc = player.getLocation(this.location);
+            entry.player = player;
+            entry.x = loc.getX();
+            entry.y = loc.getY();
+            entry.z = loc.getZ();
+            entry.blockX = loc.getBlockX();
+            entry.blockY = loc.getBlockY();
+            entry.blockZ = loc.getBlockZ();
+            entry.spectator = (player.getGameMode() == GameMode.SPECTATOR);
+            this.byPlayer.put(player, entry);
+            this.grid.computeIfAbsent(cellKey(MathUtil.toChunk(entry.blockX), MathUtil.toChunk(entry.blockZ)),
+                    k -> new ArrayList<Entry>(2)).add(entry);
+        }
+
+        // Forget players that are no longer on the world
+        while (this.entries.size() > count) {
+            this.entries.remove(this.entries.size() - 1);
+        }
+    }
+
+    /**
+     * Gets the position of a player on this world
+     *
+     * @param player The player
+     * @return position of the player, null if the player is not on this world
+     */
+    public Entry get(Player player) {
+        return this.byPlayer.get(player);
+    }
+
+    /**
+     * Calls an action for all players whose block position is within block bounds
+     *
+     * @param bounds Block bounds
+     * @param action Action to call for each player within the bounds
+     */
+    public void forEachWithin(MapBlockBounds bounds, Consumer<Entry> action) {
+        int minCX = MathUtil.toChunk(bounds.getMinX());
+        int maxCX = MathUtil.toChunk(bounds.getMaxX());
+        int minCZ = MathUtil.toChunk(bounds.getMinZ());
+        int maxCZ = MathUtil.toChunk(bounds.getMaxZ());
+        long numCells = (long) (maxCX - minCX + 1) * (long) (maxCZ - minCZ + 1);
+        if (numCells > this.grid.size()) {
+            // Fewer occupied cells than cells in the bounds, check all of them
+            for (Map.Entry<Long, List<Entry>> cell : this.grid.entrySet()) {
+                long key = cell.getKey().longValue();
+                int cx = (int) (key >> 32);
+                int cz = (int) key;
+                if (cx >= minCX && cx <= maxCX && cz >= minCZ && cz <= maxCZ) {
+                    forEachWithin(cell.getValue(), bounds, action);
+                }
+            }
+        } else {
+            for (int cz = minCZ; cz <= maxCZ; cz++) {
+                for (int cx = minCX; cx <= maxCX; cx++) {
+                    List<Entry> cell = this.grid.get(cellKey(cx, cz));
+                    if (cell != null) {
+                        forEachWithin(cell, bounds, action);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void forEachWithin(List<Entry> cell, MapBlockBounds bounds, Consumer<Entry> action) {
+        for (Entry entry : cell) {
+            if (bounds.contains(entry.blockX, entry.blockY, entry.blockZ)) {
+                action.accept(entry);
+            }
+        }
+    }
+
+    private static Long cellKey(int cx, int cz) {
+        return Long.valueOf(((long) cx << 32) | ((long) cz & 0xFFFFFFFFL));
+    }
+
+    /**
+     * Position of a single player at the time the snapshot was taken
+     */
+    public static final class Entry {
+        public Player player;
+        public double x, y, z;
+        public int blockX, blockY, blockZ;
+        public boolean spectator;
+    }
+}
@@ -0,0 +1,241 @@
+package com.bergerkiller.bukkit.maplands;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.bukkit.Material;
+
+import com.bergerkiller.bukkit.common.wrappers.BlockData;
+import com.bergerkiller.bukkit.common.wrappers.BlockRenderOptions;
+
+/**
+ * Block source that generates terrain in memory, with hills, water, caves and trees.
+ * The same seed always produces the same terrain. Blocks can be changed with
+ * {@link #setBlock(int, int, int, BlockData)}, which is stored separately from
+ * the generated terrain. Chunks are loaded instantly.<br>
+ * <br>
+ * Used to render and benchmark displays without needing the blocks of a real world.
+ */
+public final class SyntheticBlockSource implements BlockSource {
+    public static final int WATER_LEVEL = 62;
+    private static final int TRUNK_HEIGHT = 5;
+    private static final int MAX_TERRAIN_HEIGHT = 80;
+    private final String name;
+    private final double offsetX, offsetZ;
+    private final long treeSeed;
+    private final Map<Long, BlockData> changes = new HashMap<Long, BlockData>();
+    private final BlockData air, caveAir, bedrock, stone, dirt, grass, sand, water, log, leaves;
+    private int loadedChunks = 0;
+
+    public SyntheticBlockSource(String name, long seed) {
+        this.name = name;
+        Random random = new Random(seed);
+        this.offsetX = random.nextDouble() * 10000.0;
+        this.offsetZ = random.nextDouble() * 10000.0;
+        this.treeSeed = random.nextLong();
+        this.air = BlockData.fromMaterial(Material.AIR);
+        this.caveAir = BlockData.fromMaterial(Material.CAVE_AIR);
+        this.bedrock = BlockData.fromMaterial(Material.BEDROCK);
+        this.stone = BlockData.fromMaterial(Material.STONE);
+        this.dirt = BlockData.fromMaterial(Material.DIRT);
+        this.grass = BlockData.fromMaterial(Material.GRASS_BLOCK);
+        this.sand = BlockData.fromMaterial(Material.SAND);
+        this.water = BlockData.fromMaterial(Material.WATER);
+        this.log = BlockData.fromMaterial(Material.OAK_LOG);
+        this.leaves = BlockData.fromMaterial(Material.OAK_LEAVES);
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public BlockRenderOptions getRenderOptions(int x, int y, int z) {
+        return getBlockData(x, y, z).getDefaultRenderOptions();
+    }
+
+    @Override
+    public BlockData getBlockData(int x, int y, int z) {
+        if (!this.changes.isEmpty()) {
+            BlockData changed = this.changes.get(WorldChangeJournal.pack(x, y, z));
+            if (changed != null) {
+                return changed;
+            }
+        }
+        return generateBlock(x, y, z);
+    }
+
+    /**
+     * Changes a block. The change is kept until {@link #clearChanges()} is called.
+     *
+     * @param x Block x-coordinate
+     * @param y Block y-coordinate
+     * @param z Block z-coordinate
+     * @param blockData New block data
+     */
+    public void setBlock(int x, int y, int z, BlockData blockData) {
+        this.changes.put(WorldChangeJournal.pack(x, y, z), blockData);
+    }
+
+    /**
+     * Undoes all changes made with {@link #setBlock(int, int, int, BlockData)}
+     */
+    public void clearChanges() {
+        this.changes.clear();
+    }
+
+    /**
+     * Gets the number of blocks changed with {@link #setBlock(int, int, int, BlockData)}
+     *
+     * @return changed block count
+     */
+    public int getChangeCount() {
+        return this.changes.size();
+    }
+
+    /**
+     * Gets the number of chunks that are loaded and not yet closed
+     *
+     * @return loaded chunk count
+     */
+    public int getLoadedChunkCount() {
+        return this.loadedChunks;
+    }
+
+    /**
+     * Gets the y-coordinate of the highest solid block of the generated terrain
+     *
+     * @param x Block x-coordinate
+     * @param z Block z-coordinate
+     * @return terrain height
+     */
+    public int getTerrainHeight(int x, int z) {
+        double fx = x + this.offsetX;
+        double fz = z + this.offsetZ;
+        double height = 64.0 + 10.0 * Math.sin(fx / 29.0) * Math.cos(fz / 23.0)
+                             + 4.0 * Math.sin((fx + fz) / 11.0)
+                             + 2.0 * Math.cos((fx - fz) / 7.0);
+        return (int) Math.floor(height);
+    }
+
+    private BlockData generateBlock(int x, int y, int z) {
+        if (y < 0) {
+            return this.air;
+        } else if (y == 0) {
+            return this.bedrock;
+        }
+
+        int height = getTerrainHeight(x, z);
+        if (y <= height) {
+            if (y < (height - 3)) {
+                return isCave(x, y, z) ? this.caveAir : this.stone;
+            } else if (height <= (WATER_LEVEL + 1)) {
+                return this.sand;
+            } else if (y < height) {
+                return this.dirt;
+            } else {
+                return this.grass;
+            }
+        } else if (y <= WATER_LEVEL) {
+            return this.water;
+        } else if (y <= (MAX_TERRAIN_HEIGHT + TRUNK_HEIGHT + 1)) {
+            return generateTree(x, y, z, height);
+        } else {
+            return this.air;
+        }
+    }
+
+    private boolean isCave(int x, int y, int z) {
+        double fx = x + this.offsetX;
+        double fz = z + this.offsetZ;
+        return (Math.sin(fx / 8.0) * Math.sin(y / 5.0) * Math.sin(fz / 8.0)) > 0.55;
+    }
+
+    private BlockData generateTree(int x, int y, int z, int height) {
+        // Trunk
+        if (isTree(x, z, height) && y <= (height + TRUNK_HEIGHT)) {
+            return this.log;
+        }
+
+        // Leaves around the top of the trunks of nearby trees
+        for (int dx = -2; dx <= 2; dx++) {
+            for (int dz = -2; dz <= 2; dz++) {
+                int treeHeight = (dx == 0 && dz == 0) ? height : getTerrainHeight(x + dx, z + dz);
+                int dy = y - (treeHeight + TRUNK_HEIGHT);
+                if (dy < -1 || dy > 1) {
+                    continue;
+                }
+                int radius = (dy == 1) ? 1 : 3;
+                if ((Math.abs(dx) + Math.abs(dz)) <= radius && isTree(x + dx, z + dz, treeHeight)) {
+                    return this.leaves;
+                }
+            }
+        }
+        return this.air;
+    }
+
+    private boolean isTree(int x, int z, int height) {
+        if (height <= (WATER_LEVEL + 1)) {
+            return false;
+        }
+        long hash = this.treeSeed ^ ((long) x * 0x9E3779B97F4A7C15L) ^ ((long) z * 0xC2B2AE3D27D4EB4FL);
+        hash ^= (hash >>> 29);
+        hash *= 0xBF58476D1CE4E5B9L;
+        hash ^= (hash >>> 32);
+        return (hash & 63) == 0;
+    }
+
+    @Override
+    public int getMinHeight() {
+        return 0;
+    }
+
+    /**
+     * Gets the y-coordinate above the highest generated block. Blocks changed above
+     * it with {@link #setBlock(int, int, int, BlockData)} are not rendered.
+     *
+     * @return maximum block y-coordinate (exclusive)
+     */
+    @Override
+    public int getMaxHeight() {
+        return MAX_TERRAIN_HEIGHT + TRUNK_HEIGHT + 2;
+    }
+
+    @Override
+    public int getHighestSectionY(int cx, int cz) {
+        return (getMaxHeight() - 1) >> 4;
+    }
+
+    @Override
+    public BlockSource.Chunk loadChunk(final int cx, final int cz) {
+        this.loadedChunks++;
+        return new BlockSource.Chunk() {
+            private boolean closed = false;
+
+            @Override
+            public int getX() {
+                return cx;
+            }
+
+            @Override
+            public int getZ() {
+                return cz;
+            }
+
+            @Override
+            public boolean isLoaded() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+                if (!this.closed) {
+                    this.closed = true;
+                    loadedChunks--;
+                }
+            }
+        };
+    }
+}
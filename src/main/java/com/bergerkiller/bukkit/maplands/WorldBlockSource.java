@@ -0,0 +1,96 @@
+package com.bergerkiller.bukkit.maplands;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+
+import com.bergerkiller.bukkit.common.chunk.ForcedChunk;
+import com.bergerkiller.bukkit.common.utils.WorldUtil;
+import com.bergerkiller.bukkit.common.wrappers.BlockData;
+import com.bergerkiller.bukkit.common.wrappers.BlockRenderOptions;
+
+/**
+ * Block source reading the blocks of a loaded world
+ */
+public final class WorldBlockSource implements BlockSource {
+    private final World world;
+
+    public WorldBlockSource(World world) {
+        this.world = world;
+    }
+
+    public World getWorld() {
+        return this.world;
+    }
+
+    @Override
+    public String getName() {
+        return this.world.getName();
+    }
+
+    @Override
+    public BlockRenderOptions getRenderOptions(int x, int y, int z) {
+        return BlockRenderOptions.fromBlock(this.world, x, y, z);
+    }
+
+    @Override
+    public BlockData getBlockData(int x, int y, int z) {
+        return WorldUtil.getBlockData(this.world, x, y, z);
+    }
+
+    @Override
+    public int getMinHeight() {
+        return this.world.getMinHeight();
+    }
+
+    @Override
+    public int getMaxHeight() {
+        return this.world.getMaxHeight();
+    }
+
+    @Override
+    public int getHighestSectionY(int cx, int cz) {
+        ChunkSnapshot snapshot = this.world.getChunkAt(cx, cz).getChunkSnapshot();
+        int minSectionY = this.world.getMinHeight() >> 4;
+        int sy = (this.world.getMaxHeight() - 1) >> 4;
+        while (sy >= minSectionY && snapshot.isSectionEmpty(sy - minSectionY)) {
+            sy--;
+        }
+        return sy;
+    }
+
+    @Override
+    public BlockSource.Chunk loadChunk(int cx, int cz) {
+        final ForcedChunk chunk = WorldUtil.forceChunkLoaded(this.world, cx, cz);
+        return new BlockSource.Chunk() {
+            @Override
+            public int getX() {
+                return chunk.getX();
+            }
+
+            @Override
+            public int getZ() {
+                return chunk.getZ();
+            }
+
+            @Override
+            public boolean isLoaded() {
+                return chunk.getChunkAsync().isDone();
+            }
+
+            @Override
+            public void close() {
+                chunk.close();
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof WorldBlockSource && ((WorldBlockSource) o).world == this.world;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.world.hashCode();
+    }
+}
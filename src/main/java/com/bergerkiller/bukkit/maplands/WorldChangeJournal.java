@@ -0,0 +1,260 @@
+package com.bergerkiller.bukkit.maplands;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.LongConsumer;
+
+import org.bukkit.block.Block;
+
+/**
+ * Keeps track of the 16x16x16 chunk sections in which blocks changed in every world, so that
+ * displays that were not loaded while the change happened can re-render just those sections
+ * when they are viewed again. Every change is assigned an increasing sequence number. The
+ * journal is bounded in size: when full, the oldest changes are forgotten and displays that
+ * missed those will have to re-render entirely.
+ */
+public class WorldChangeJournal {
+    private static final int VERSION = 2;
+    private final Map<String, WorldJournal> _worlds = new HashMap<String, WorldJournal>();
+    private int _capacity;
+    private long _epoch;
+    private long _sequence = 0;
+
+    public WorldChangeJournal(int capacity) {
+        _capacity = capacity;
+        _epoch = new Random().nextLong();
+    }
+
+    /**
+     * Gets a unique number identifying this journal. If a display stored a different
+     * epoch, its sequence number refers to a journal that no longer exists.
+     *
+     * @return epoch
+     */
+    public long getEpoch() {
+        return _epoch;
+    }
+
+    /**
+     * Gets whether changes are recorded. When disabled, displays show the
+     * state they had when last viewed.
+     *
+     * @return True if enabled
+     */
+    public boolean isEnabled() {
+        return _capacity > 0;
+    }
+
+    /**
+     * Gets the sequence number of the last change recorded
+     *
+     * @return sequence number
+     */
+    public long getSequence() {
+        return _sequence;
+    }
+
+    /**
+     * Records that a block changed
+     *
+     * @param block The block that changed
+     */
+    public void record(Block block) {
+        record(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
+    }
+
+    /**
+     * Records that a block changed. Only the chunk section the block is in is remembered.
+     *
+     * @param worldName Name of the world the block is in
+     * @param bx Block X-coordinate
+     * @param by Block Y-coordinate
+     * @param bz Block Z-coordinate
+     */
+    public void record(String worldName, int bx, int by, int bz) {
+        if (_capacity <= 0) {
+            return;
+        }
+        WorldJournal journal = _worlds.get(worldName);
+        if (journal == null) {
+            journal = new WorldJournal();
+            _worlds.put(worldName, journal);
+        }
+
+        // Block physics mostly changes many blocks of the same section in a row
+        // That section is already the most recent change, so only the sequence number changes
+        long key = pack(bx >> 4, by >> 4, bz >> 4);
+        Change change = journal.lastChange;
+        if (change == null || journal.lastKey != key) {
+            Long boxedKey = Long.valueOf(key);
+            change = journal.changes.get(boxedKey); // moves it to the end
+            if (change == null) {
+                change = new Change();
+                journal.changes.put(boxedKey, change);
+            }
+            journal.lastChange = change;
+            journal.lastKey = key;
+        }
+        change.sequence = ++_sequence;
+    }
+
+    /**
+     * Calls the action with the packed section coordinates of all chunk sections in a world
+     * that changed after a sequence number. If changes since then were forgotten because the
+     * journal was full, nothing is called and false is returned.
+     *
+     * @param worldName Name of the world
+     * @param sequence Sequence number after which to list changes
+     * @param action Called with the packed section coordinates of each change,
+     *               see {@link #pack(int, int, int)}
+     * @return True if all changes since the sequence number were listed
+     */
+    public boolean forEachChangeSince(String worldName, long sequence, LongConsumer action) {
+        WorldJournal journal = _worlds.get(worldName);
+        if (journal == null) {
+            return true;
+        } else if (sequence < journal.forgottenSequence) {
+            return false;
+        }
+        for (Map.Entry<Long, Change> entry : journal.changes.entrySet()) {
+            if (entry.getValue().sequence > sequence) {
+                action.accept(entry.getKey().longValue());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Saves the journal to a file
+     *
+     * @param file File to write to
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            stream.writeInt(VERSION);
+            stream.writeLong(_epoch);
+            stream.writeLong(_sequence);
+            stream.writeInt(_worlds.size());
+            for (Map.Entry<String, WorldJournal> world : _worlds.entrySet()) {
+                WorldJournal journal = world.getValue();
+                stream.writeUTF(world.getKey());
+                stream.writeLong(journal.forgottenSequence);
+                stream.writeInt(journal.changes.size());
+                for (Map.Entry<Long, Change> change : journal.changes.entrySet()) {
+                    stream.writeLong(change.getKey().longValue());
+                    stream.writeLong(change.getValue().sequence);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads a journal previously saved to a file. If the file does not exist or
+     * is of an unsupported version, the journal is left empty.<br>
+     * <br>
+     * The file is deleted once read, so it is only there again after a clean save.
+     * After a crash, the journal starts over with a new epoch, so that displays that
+     * saved a sequence number during the crashed session re-render entirely.
+     *
+     * @param file File to read from
+     * @throws IOException
+     */
+    public void load(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            loadFromFile(file);
+        } catch (IOException ex) {
+            // Partially read changes can not be trusted
+            _worlds.clear();
+            _epoch = new Random().nextLong();
+            throw ex;
+        } finally {
+            file.delete();
+        }
+    }
+
+    private void loadFromFile(File file) throws IOException {
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (stream.readInt() != VERSION) {
+                return;
+            }
+            _worlds.clear();
+            _epoch = stream.readLong();
+            _sequence = stream.readLong();
+            int numWorlds = stream.readInt();
+            for (int i = 0; i < numWorlds; i++) {
+                WorldJournal journal = new WorldJournal();
+                _worlds.put(stream.readUTF(), journal);
+                journal.forgottenSequence = stream.readLong();
+                int numChanges = stream.readInt();
+                for (int j = 0; j < numChanges; j++) {
+                    Long key = Long.valueOf(stream.readLong());
+                    Change change = new Change();
+                    change.sequence = stream.readLong();
+                    journal.changes.put(key, change);
+                }
+            }
+        }
+    }
+
+    /**
+     * Packs block or section coordinates into a single long value
+     *
+     * @param bx X-coordinate
+     * @param by Y-coordinate
+     * @param bz Z-coordinate
+     * @return packed position
+     */
+    public static long pack(int bx, int by, int bz) {
+        return (((long) bx & 0x3FFFFFFL) << 38) | (((long) bz & 0x3FFFFFFL) << 12) | ((long) by & 0xFFFL);
+    }
+
+    public static int unpackX(long packed) {
+        return (int) (packed >> 38);
+    }
+
+    public static int unpackY(long packed) {
+        return (int) (packed << 52 >> 52);
+    }
+
+    public static int unpackZ(long packed) {
+        return (int) (packed << 26 >> 38);
+    }
+
+    private static final class Change {
+        public long sequence;
+    }
+
+    private final class WorldJournal {
+        public long forgottenSequence = 0;
+        public long lastKey;
+        public Change lastChange = null;
+        // Access-ordered, so that the section changed last is at the end
+        public final LinkedHashMap<Long, Change> changes = new LinkedHashMap<Long, Change>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Change> eldest) {
+                if (size() > _capacity) {
+                    forgottenSequence = eldest.getValue().sequence;
+                    return true;
+                } else {
+                    return false;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,187 @@
+package com.bergerkiller.bukkit.maplands.markers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.ChatColor;
+
+import com.bergerkiller.bukkit.common.map.MapMarker;
+import com.bergerkiller.bukkit.maplands.MaplandsDisplay;
+
+/**
+ * Merges markers that are within a pixel radius of each other on the display into
+ * a single cluster marker, which shows the number of markers it contains as caption.
+ * The markers part of a cluster are hidden. Clusters are identified by the marker
+ * with the smallest id they contain, so that the same cluster markers are re-used when
+ * the clusters are computed again, no matter in what order the markers were added.
+ */
+class MapMarkerClusters {
+    private final MaplandsDisplay display;
+    private final List<MapMarker> candidates = new ArrayList<MapMarker>();
+    private final Map<Long, List<Cluster>> grid = new HashMap<Long, List<Cluster>>();
+    private final List<Cluster> clusters = new ArrayList<Cluster>();
+    private final Set<String> clusteredIds = new HashSet<String>();
+    private Map<String, MapMarker> clusterMarkers = new HashMap<String, MapMarker>();
+    private Map<String, MapMarker> newClusterMarkers = new HashMap<String, MapMarker>();
+
+    public MapMarkerClusters(MaplandsDisplay display) {
+        this.display = display;
+    }
+
+    /**
+     * Adds a marker that is shown on the display to be clustered the next time
+     * {@link #update(int, boolean)} is called
+     *
+     * @param marker The marker
+     */
+    public void add(MapMarker marker) {
+        this.candidates.add(marker);
+    }
+
+    /**
+     * Clusters all the markers added since the last update. Markers that are not part of
+     * any cluster are made visible. Cluster markers no longer in use are removed.
+     *
+     * @param radius Pixel radius within which markers are merged into one cluster
+     * @param hiddenInFirstTile Whether markers in the first 128x128 tile are hidden
+     */
+    public void update(int radius, boolean hiddenInFirstTile) {
+        for (MapMarker marker : this.candidates) {
+            int index = this.assign(marker.getPositionX(), marker.getPositionY(), radius);
+            this.clusters.get(index).members.add(marker);
+        }
+
+        this.clusteredIds.clear();
+        for (Cluster cluster : this.clusters) {
+            if (cluster.members.size() == 1) {
+                cluster.members.get(0).setVisible(true);
+                continue;
+            }
+
+            // Show a single marker at the center of all markers in the cluster
+            double x = 0.0, y = 0.0;
+            MapMarker first = cluster.members.get(0);
+            for (MapMarker member : cluster.members) {
+                member.setVisible(false);
+                this.clusteredIds.add(member.getId());
+                x += member.getPositionX();
+                y += member.getPositionY();
+                if (member.getId().compareTo(first.getId()) < 0) {
+                    first = member;
+                }
+            }
+            x /= cluster.members.size();
+            y /= cluster.members.size();
+
+            String id = "cluster_" + first.getId();
+            MapMarker marker = this.clusterMarkers.remove(id);
+            if (marker == null) {
+                marker = display.createMarker(id);
+            }
+            this.newClusterMarkers.put(id, marker);
+
+            String caption = ChatColor.WHITE.toString() + cluster.members.size();
+            if (!caption.equals(marker.getCaption())) {
+                marker.setCaption(caption);
+            }
+            if (marker.getType() != first.getType()) {
+                marker.setType(first.getType());
+            }
+            if (marker.getPositionX() != x || marker.getPositionY() != y) {
+                marker.setPosition(x, y);
+            }
+            marker.setVisible(!hiddenInFirstTile || x >= 128.0 || y >= 128.0);
+        }
+
+        // Remove cluster markers that are no longer used
+        for (MapMarker marker : this.clusterMarkers.values()) {
+            marker.remove();
+        }
+        this.clusterMarkers.clear();
+        Map<String, MapMarker> tmp = this.clusterMarkers;
+        this.clusterMarkers = this.newClusterMarkers;
+        this.newClusterMarkers = tmp;
+
+        this.candidates.clear();
+        this.clusters.clear();
+        this.grid.clear();
+    }
+
+    /**
+     * Gets whether a marker was hidden because it is part of a cluster, the
+     * last time the clusters were computed
+     *
+     * @param marker The marker
+     * @return True if the marker is part of a cluster
+     */
+    public boolean isClustered(MapMarker marker) {
+        return this.clusteredIds.contains(marker.getId());
+    }
+
+    /**
+     * Finds the cluster a marker at a position on the display belongs to. This is the
+     * first cluster found whose first marker is within the radius of the position.
+     * If there is none, a new cluster is started at the position.
+     *
+     * @param x Pixel x-coordinate of the marker on the display
+     * @param y Pixel y-coordinate of the marker on the display
+     * @param radius Pixel radius within which markers are merged into one cluster
+     * @return index of the cluster the marker belongs to
+     */
+    int assign(double x, double y, int radius) {
+        // Grid cells are as large as the radius, so a cluster within the radius
+        // is always found in the same or one of the neighbouring cells
+        double radiusSq = (double) radius * (double) radius;
+        int cx = (int) Math.floor(x / radius);
+        int cy = (int) Math.floor(y / radius);
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                List<Cluster> cell = this.grid.get(cellKey(cx + dx, cy + dy));
+                if (cell != null) {
+                    for (Cluster cluster : cell) {
+                        double ddx = cluster.x - x;
+                        double ddy = cluster.y - y;
+                        if ((ddx * ddx + ddy * ddy) <= radiusSq) {
+                            return cluster.index;
+                        }
+                    }
+                }
+            }
+        }
+
+        Cluster cluster = new Cluster(this.clusters.size(), x, y);
+        this.clusters.add(cluster);
+        this.grid.computeIfAbsent(cellKey(cx, cy), k -> new ArrayList<Cluster>(2)).add(cluster);
+        return cluster.index;
+    }
+
+    /**
+     * Forgets all cluster markers without removing them. Used when all markers
+     * of the display were already cleared.
+     */
+    public void reset() {
+        this.candidates.clear();
+        this.clusterMarkers.clear();
+        this.clusteredIds.clear();
+    }
+
+    private static Long cellKey(int cx, int cy) {
+        return Long.valueOf(((long) cx << 32) | ((long) cy & 0xFFFFFFFFL));
+    }
+
+    private static final class Cluster {
+        public final int index;
+        public final double x, y;
+        public final List<MapMarker> members = new ArrayList<MapMarker>(2);
+
+        public Cluster(int index, double x, double y) {
+            this.index = index;
+            this.x = x;
+            this.y = y;
+        }
+    }
+}
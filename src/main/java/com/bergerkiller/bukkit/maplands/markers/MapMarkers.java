@@ -2,11 +2,13 @@ package com.bergerkiller.bukkit.maplands.markers;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
-import org.bukkit.GameMode;
 import org.bukkit.entity.Player;
 import org.bukkit.util.Vector;
 
@@ -15,7 +17,10 @@ import com.bergerkiller.bukkit.common.nbt.CommonTagCompound;
 import com.bergerkiller.bukkit.common.nbt.CommonTagList;
 import com.bergerkiller.bukkit.common.utils.CommonUtil;
 import com.bergerkiller.bukkit.common.utils.MathUtil;
+import com.bergerkiller.bukkit.maplands.MapProjection;
+import com.bergerkiller.bukkit.maplands.Maplands;
 import com.bergerkiller.bukkit.maplands.MaplandsDisplay;
+import com.bergerkiller.bukkit.maplands.PlayerPositionSnapshot;
 
 import net.md_5.bungee.api.ChatColor;
 
@@ -25,8 +30,18 @@ import net.md_5.bungee.api.ChatColor;
 public class MapMarkers {
     private final MaplandsDisplay display;
     private List<MapStaticMarker> staticMarkers = new ArrayList<MapStaticMarker>();
-    private List<MapMarker> heldMarkers = new ArrayList<MapMarker>();
-    private List<MapMarker> playerMarkers = new ArrayList<MapMarker>();
+    private final MapStaticMarkerIndex staticMarkerIndex = new MapStaticMarkerIndex();
+    private Set<MapStaticMarker> visibleStaticMarkers = new HashSet<MapStaticMarker>();
+    private Set<MapStaticMarker> newVisibleStaticMarkers = new HashSet<MapStaticMarker>();
+    private final Map<Player, PlayerMarker> heldMarkers = new IdentityHashMap<Player, PlayerMarker>();
+    private final Map<Player, PlayerMarker> playerMarkers = new IdentityHashMap<Player, PlayerMarker>();
+    private final MapMarkerClusters clusters;
+    private final MapProjection.Point projected = new MapProjection.Point();
+    private int captionVersion = 0;
+    private boolean dirty = false;
+    private int ticksSinceUpdate = 0;
+    private int updateInterval = 1;
+    private boolean wasHiddenFirstTileAtUpdate = false;
     private MapMarker.Type markerTypeWhenHeld;
     private boolean heldShowCoords = false;
     private MapMarker.Type markerTypeForPlayers;
@@ -36,6 +51,7 @@ public class MapMarkers {
 
     public MapMarkers(MaplandsDisplay display) {
         this.display = display;
+        this.clusters = new MapMarkerClusters(display);
     }
 
     public MaplandsDisplay getDisplay() {
@@ -50,16 +66,13 @@ public class MapMarkers {
         if (markerTypeWhenHeld != type) {
             markerTypeWhenHeld = type;
             if (type == null) {
-                for (MapMarker marker : heldMarkers) {
-                    marker.remove();
-                }
-                heldMarkers.clear();
+                removeAll(heldMarkers);
             } else {
-                for (MapMarker marker : heldMarkers) {
-                    marker.setType(type);
+                for (PlayerMarker marker : heldMarkers.values()) {
+                    marker.marker.setType(type);
                 }
             }
-            save();
+            markDirty();
         }
     }
 
@@ -70,7 +83,8 @@ public class MapMarkers {
     public void setShowCoordinatesWhenHeld(boolean show) {
         if (heldShowCoords != show) {
             heldShowCoords = show;
-            save();
+            captionVersion++;
+            markDirty();
         }
     }
 
@@ -82,16 +96,13 @@ public class MapMarkers {
         if (markerTypeForPlayers != type) {
             markerTypeForPlayers = type;
             if (type == null) {
-                for (MapMarker marker : playerMarkers) {
-                    marker.remove();
-                }
-                playerMarkers.clear();
+                removeAll(playerMarkers);
             } else {
-                for (MapMarker marker : playerMarkers) {
-                    marker.setType(type);
+                for (PlayerMarker marker : playerMarkers.values()) {
+                    marker.marker.setType(type);
                 }
             }
-            save();
+            markDirty();
         }
     }
 
@@ -102,7 +113,8 @@ public class MapMarkers {
     public void setShowNameForPlayers(boolean show) {
         if (playersShowName != show) {
             playersShowName = show;
-            save();
+            captionVersion++;
+            markDirty();
         }
     }
 
@@ -113,7 +125,8 @@ public class MapMarkers {
     public void setShowCoordinatesForPlayers(boolean show) {
         if (playersShowCoords != show) {
             playersShowCoords = show;
-            save();
+            captionVersion++;
+            markDirty();
         }
     }
 
@@ -124,19 +137,27 @@ public class MapMarkers {
     public MapStaticMarker addStaticMarker(Vector position) {
         MapStaticMarker marker = new MapStaticMarker(this, position);
         this.staticMarkers.add(marker);
+        this.staticMarkerIndex.add(marker);
         marker.update();
         return marker;
     }
 
     public void removeStaticMarker(MapStaticMarker marker) {
         if (this.staticMarkers.remove(marker)) {
+            this.staticMarkerIndex.remove(marker);
+            this.visibleStaticMarkers.remove(marker);
             this.display.removeMarker(marker.id);
-            this.save();
+            this.updateClusters();
+            this.markDirty();
         }
     }
 
     public void load() {
         display.clearMarkers();
+        heldMarkers.clear();
+        playerMarkers.clear();
+        clusters.reset();
+        dirty = false;
 
         if (display.getProperties().containsKey("markerTypeWhenHeld", String.class)) {
             markerTypeWhenHeld = MapMarker.Type.byName(display.getProperties().get("markerTypeWhenHeld", String.class));
@@ -153,17 +174,40 @@ public class MapMarkers {
         playersShowName = display.getProperties().get("playersShowName", false);
 
         staticMarkers.clear();
+        staticMarkerIndex.clear();
+        visibleStaticMarkers.clear();
         CommonTagList nbtStaticMarkers = display.getProperties().get("staticMarkers", CommonTagList.class);
         if (nbtStaticMarkers != null) {
             for (int i = 0; i < nbtStaticMarkers.size(); i++) {
                 CommonTagCompound nbtStaticMarker = CommonUtil.tryCast(nbtStaticMarkers.get(i), CommonTagCompound.class);
                 if (nbtStaticMarker != null) {
-                    staticMarkers.add(MapStaticMarker.load(this, nbtStaticMarker));
+                    MapStaticMarker marker = MapStaticMarker.load(this, nbtStaticMarker);
+                    staticMarkers.add(marker);
+                    staticMarkerIndex.add(marker);
                 }
             }
         }
     }
 
+    /**
+     * Marks the marker configuration as changed. It is written to the display
+     * properties the next tick, or when the display is detached.
+     */
+    public void markDirty() {
+        dirty = true;
+    }
+
+    /**
+     * Writes the marker configuration to the display properties, if it changed
+     * since it was last written.
+     */
+    public void saveIfDirty() {
+        if (dirty) {
+            dirty = false;
+            save();
+        }
+    }
+
     public void save() {
         display.getProperties().set("markerTypeWhenHeld", (markerTypeWhenHeld==null) ? null : markerTypeWhenHeld.name());
         display.getProperties().set("markerTypeForPlayers", (markerTypeForPlayers==null) ? null : markerTypeForPlayers.name());
@@ -193,130 +237,241 @@ public class MapMarkers {
     }
 
     public void update() {
+        // Write changes to static markers and settings once per tick
+        saveIfDirty();
+
         // Forced update needed of static markers when menu is closed
         if (wereMarkersHiddenFirstTile && !isHiddenInFirstTile()) {
             this.viewChanged();
         }
 
-        Set<MapMarker> updatedMarkers = new HashSet<MapMarker>();
+        // Only refresh player markers every few ticks, depending on whether the map is held
+        // In between, markers can be moved smoothly towards the last refreshed position
+        boolean forceUpdate = (wasHiddenFirstTileAtUpdate != isHiddenInFirstTile());
+        if (!forceUpdate && ++ticksSinceUpdate < updateInterval) {
+            if (Maplands.isMarkerInterpolationEnabled()) {
+                double theta = (double) ticksSinceUpdate / (double) updateInterval;
+                for (PlayerMarker marker : heldMarkers.values()) {
+                    marker.interpolate(theta);
+                }
+                boolean moved = false;
+                for (PlayerMarker marker : playerMarkers.values()) {
+                    moved |= marker.interpolate(theta);
+                }
+
+                // Player markers moving in or out of a cluster change the clusters
+                if (moved) {
+                    updateClusters();
+                }
+            }
+            return;
+        }
+        ticksSinceUpdate = 0;
+
+        // Markers still moving smoothly arrive at the position they were moving towards
+        // This way, markers of players that stopped moving also stop moving
+        for (PlayerMarker marker : heldMarkers.values()) {
+            marker.finishMove();
+        }
+        for (PlayerMarker marker : playerMarkers.values()) {
+            marker.finishMove();
+        }
+        wasHiddenFirstTileAtUpdate = isHiddenInFirstTile();
+        updateInterval = isHeldByAnyone() ? Maplands.getHeldMarkerInterval() : Maplands.getFramedMarkerInterval();
+        final boolean smooth = Maplands.isMarkerInterpolationEnabled() && updateInterval > 1;
+
+        // Positions of all players on the world, shared by all displays this tick
+        PlayerPositionSnapshot players = PlayerPositionSnapshot.of(display.getStartBlock().getWorld());
+
         if (isHiddenInFirstTile()) {
             // Dont show any of these
-            heldMarkers.forEach(MapMarker::remove);
-            heldMarkers.clear();
+            removeAll(heldMarkers);
         } else if (markerTypeWhenHeld != null) {
-            updatedMarkers.clear();
             for (Player viewer : display.getViewers()) {
                 if (!display.isHolding(viewer)) {
                     continue;
                 }
-                if (viewer.getWorld() != display.getStartBlock().getWorld()) {
-                    continue;
+                PlayerPositionSnapshot.Entry viewerPos = players.get(viewer);
+                if (viewerPos == null) {
+                    continue; // Not on the same world
                 }
 
-                String id = "held_" + viewer.getName();
-                MapMarker marker = display.getMarker(id);
+                PlayerMarker marker = heldMarkers.get(viewer);
                 if (marker == null) {
-                    marker = display.createMarker(id);
-                    marker.setType(markerTypeWhenHeld);
+                    marker = new PlayerMarker(getOrCreateMarker("held_" + viewer.getName(), markerTypeWhenHeld));
+                    heldMarkers.put(viewer, marker);
                 }
-                updatedMarkers.add(marker);
+                marker.seen = true;
 
                 // Refresh position of the marker, clamp to within the held map area (first tile)
-                Vector playerPos = viewer.getLocation().toVector();
-                Vector positionOnMap = display.getScreenCoordinates(playerPos);
-                positionOnMap.setX(MathUtil.clamp(positionOnMap.getX(), 0.0, 127.5));
-                positionOnMap.setY(MathUtil.clamp(positionOnMap.getY(), 0.0, 127.5));
-                marker.setPosition(positionOnMap.getX(), positionOnMap.getY());
+                // Only done when the player moved
+                if (!marker.isSamePosition(viewerPos)) {
+                    display.getProjection().project(viewerPos.x, viewerPos.y, viewerPos.z, projected);
+                    marker.setPosition(viewerPos,
+                            MathUtil.clamp(projected.x, 0.0, 127.5),
+                            MathUtil.clamp(projected.y, 0.0, 127.5),
+                            smooth);
+                }
 
                 // Show position (block) as label when enabled
-                if (showCoordinatesWhenHeld()) {
-                    marker.setCaption(ChatColor.WHITE + "[" + playerPos.getBlockX() + "/" +
-                            playerPos.getBlockY() + "/" + playerPos.getBlockZ() + "]");
-                } else {
-                    marker.setCaption(null);
+                if (marker.isCaptionChanged(viewerPos, null, captionVersion)) {
+                    if (showCoordinatesWhenHeld()) {
+                        marker.marker.setCaption(ChatColor.WHITE + "[" + viewerPos.blockX + "/" +
+                                viewerPos.blockY + "/" + viewerPos.blockZ + "]");
+                    } else {
+                        marker.marker.setCaption(null);
+                    }
                 }
             }
 
             // Remove markers no longer matching a player
-            // Re-add all newly updated markers for tracking
-            for (Iterator<MapMarker> iter = heldMarkers.iterator(); iter.hasNext();) {
-                MapMarker old = iter.next();
-                if (!updatedMarkers.remove(old)) {
-                    iter.remove();
-                    old.remove();
-                }
-            }
-            heldMarkers.addAll(updatedMarkers);
+            removeUnseen(heldMarkers);
         }
 
         if (markerTypeForPlayers != null) {
-            updatedMarkers.clear();
-            for (Player player : display.getStartBlock().getWorld().getPlayers()) {
-                if (player.getGameMode() == GameMode.SPECTATOR) {
-                    continue;
+            // Only players within the block bounds of the display can be shown
+            players.forEachWithin(display.getBlockBounds(), playerPos -> {
+                Player player = playerPos.player;
+                if (playerPos.spectator) {
+                    return;
                 }
                 if (markerTypeWhenHeld != null && display.isHolding(player)) {
-                    continue;
+                    return;
                 }
 
                 // Refresh position of the marker, if outside of map area, don't show
-                // Quick optimization: use block bounds to avoid getScreenCoordinates calc.
-                Vector playerPos = player.getLocation().toVector();
-                if (!display.isBlockWithinBounds(playerPos.getBlockX(), playerPos.getBlockY(), playerPos.getBlockZ())) {
-                    continue;
+                // If the player didn't move, the previously computed position is used
+                PlayerMarker marker = playerMarkers.get(player);
+                double screenX, screenY;
+                if (marker != null && marker.isSamePosition(playerPos)) {
+                    screenX = marker.screenX;
+                    screenY = marker.screenY;
+                } else {
+                    display.getProjection().project(playerPos.x, playerPos.y, playerPos.z, projected);
+                    screenX = projected.x;
+                    screenY = projected.y;
                 }
-                Vector positionOnMap = display.getScreenCoordinates(playerPos);
-                if (positionOnMap.getX() < 0.0 || positionOnMap.getY() < 0.0 ||
-                    positionOnMap.getX() > display.getWidth() || positionOnMap.getY() > display.getHeight())
-                {
-                    continue;
+                if (screenX < 0.0 || screenY < 0.0 || screenX > display.getWidth() || screenY > display.getHeight()) {
+                    return;
                 }
 
                 // If markers are hidden in the first tile (because menu is open), ignore those positions
-                if (isHiddenInFirstTile() && positionOnMap.getX() < 128.0 && positionOnMap.getY() < 128.0) {
-                    continue;
+                if (isHiddenInFirstTile() && screenX < 128.0 && screenY < 128.0) {
+                    return;
                 }
 
                 // Create a marker
-                String id = "player_" + player.getName();
-                MapMarker marker = display.getMarker(id);
                 if (marker == null) {
-                    marker = display.createMarker(id);
-                    marker.setType(markerTypeForPlayers);
+                    marker = new PlayerMarker(getOrCreateMarker("player_" + player.getName(), markerTypeForPlayers));
+                    playerMarkers.put(player, marker);
                 }
-                updatedMarkers.add(marker);
-                marker.setPosition(positionOnMap.getX(), positionOnMap.getY());
+                marker.seen = true;
+                marker.setPosition(playerPos, screenX, screenY, smooth);
 
                 // Show player display name / coordinates as configured
-                StringBuilder caption = new StringBuilder();
-                if (showNameForPlayers()) {
-                    if (caption.length() > 0) caption.append(' ');
-                    caption.append(player.getDisplayName());
-                }
-                if (showCoordinatesForPlayers()) {
-                    if (caption.length() > 0) caption.append(' ');
-                    caption.append(ChatColor.WHITE).append('[');
-                    caption.append(playerPos.getBlockX()).append('/');
-                    caption.append(playerPos.getBlockY()).append('/');
-                    caption.append(playerPos.getBlockZ()).append(']');
-                }
-                if (caption.length() > 0) {
-                    marker.setCaption(caption.toString());
-                } else {
-                    marker.setCaption(null);
+                String displayName = showNameForPlayers() ? player.getDisplayName() : null;
+                if (marker.isCaptionChanged(playerPos, displayName, captionVersion)) {
+                    StringBuilder caption = new StringBuilder();
+                    if (displayName != null) {
+                        caption.append(displayName);
+                    }
+                    if (showCoordinatesForPlayers()) {
+                        if (caption.length() > 0) caption.append(' ');
+                        caption.append(ChatColor.WHITE).append('[');
+                        caption.append(playerPos.blockX).append('/');
+                        caption.append(playerPos.blockY).append('/');
+                        caption.append(playerPos.blockZ).append(']');
+                    }
+                    if (caption.length() > 0) {
+                        marker.marker.setCaption(caption.toString());
+                    } else {
+                        marker.marker.setCaption(null);
+                    }
                 }
-            }
+            });
 
             // Remove markers no longer matching a player
-            // Re-add all newly updated markers for tracking
-            for (Iterator<MapMarker> iter = playerMarkers.iterator(); iter.hasNext();) {
-                MapMarker old = iter.next();
-                if (!updatedMarkers.remove(old)) {
-                    iter.remove();
-                    old.remove();
-                }
+            removeUnseen(playerMarkers);
+        }
+
+        updateClusters();
+    }
+
+    /**
+     * Merges static and player markers that are close together on the display into
+     * clusters, if enabled. Must be called after any of these markers moved.
+     */
+    private void updateClusters() {
+        int radius = Maplands.getMarkerClusterRadius();
+        if (radius <= 0) {
+            return;
+        }
+
+        boolean hiddenInFirstTile = isHiddenInFirstTile();
+        for (MapStaticMarker staticMarker : this.visibleStaticMarkers) {
+            if (staticMarker.type == null) {
+                continue;
+            }
+            MapMarker marker = display.getMarker(staticMarker.id);
+            if (marker == null) {
+                continue;
+            }
+            if (hiddenInFirstTile && marker.getPositionX() < 128.0 && marker.getPositionY() < 128.0) {
+                continue;
+            }
+            clusters.add(marker);
+        }
+        for (PlayerMarker marker : this.playerMarkers.values()) {
+            clusters.add(marker.marker);
+        }
+        clusters.update(radius, hiddenInFirstTile);
+    }
+
+    /**
+     * Gets whether a marker shown on the display is currently hidden, because it
+     * is merged into a cluster together with other markers
+     *
+     * @param marker The marker
+     * @return True if the marker is part of a cluster
+     */
+    boolean isClustered(MapMarker marker) {
+        return Maplands.getMarkerClusterRadius() > 0 && clusters.isClustered(marker);
+    }
+
+    private boolean isHeldByAnyone() {
+        for (Player viewer : display.getViewers()) {
+            if (display.isHolding(viewer)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private MapMarker getOrCreateMarker(String id, MapMarker.Type type) {
+        MapMarker marker = display.getMarker(id);
+        if (marker == null) {
+            marker = display.createMarker(id);
+            marker.setType(type);
+        }
+        return marker;
+    }
+
+    private static void removeAll(Map<Player, PlayerMarker> markers) {
+        for (PlayerMarker marker : markers.values()) {
+            marker.marker.remove();
+        }
+        markers.clear();
+    }
+
+    private static void removeUnseen(Map<Player, PlayerMarker> markers) {
+        for (Iterator<PlayerMarker> iter = markers.values().iterator(); iter.hasNext();) {
+            PlayerMarker marker = iter.next();
+            if (marker.seen) {
+                marker.seen = false;
+            } else {
+                iter.remove();
+                marker.marker.remove();
             }
-            playerMarkers.addAll(updatedMarkers);
         }
     }
 
@@ -325,13 +480,144 @@ public class MapMarkers {
      */
     public void viewChanged() {
         wereMarkersHiddenFirstTile = this.isHiddenInFirstTile();
-        for (MapStaticMarker marker : this.staticMarkers) {
-            marker.update();
+        ticksSinceUpdate = updateInterval; // Refresh player markers right away
+        for (PlayerMarker marker : this.heldMarkers.values()) {
+            marker.resetPosition();
+        }
+        for (PlayerMarker marker : this.playerMarkers.values()) {
+            marker.resetPosition();
+        }
+
+        // Only show the static markers that are within view
+        // Markers that were visible before, but are no longer, are removed
+        this.staticMarkerIndex.forEachWithin(display.getBlockBounds(), marker -> {
+            if (marker.refresh()) {
+                this.newVisibleStaticMarkers.add(marker);
+            }
+        });
+        for (MapStaticMarker marker : this.visibleStaticMarkers) {
+            if (!this.newVisibleStaticMarkers.contains(marker)) {
+                marker.hide();
+            }
+        }
+        Set<MapStaticMarker> tmp = this.visibleStaticMarkers;
+        this.visibleStaticMarkers = this.newVisibleStaticMarkers;
+        this.newVisibleStaticMarkers = tmp;
+        this.newVisibleStaticMarkers.clear();
+
+        updateClusters();
+    }
+
+    /**
+     * Projects a world position onto the display. The returned point is re-used
+     * for every position projected, and must not be stored.
+     *
+     * @param position World position
+     * @return pixel coordinates of the position on the display
+     */
+    MapProjection.Point project(Vector position) {
+        return display.getProjection().project(position.getX(), position.getY(), position.getZ(), projected);
+    }
+
+    /**
+     * Updates a single static marker shown on the display, after its properties changed
+     *
+     * @param marker The static marker
+     */
+    void refreshStaticMarker(MapStaticMarker marker) {
+        if (marker.refresh()) {
+            this.visibleStaticMarkers.add(marker);
+        } else {
+            this.visibleStaticMarkers.remove(marker);
         }
+        updateClusters();
     }
 
     public void showMenu() {
         display.addWidget(new MapMarkerMenu(this));
         viewChanged();
     }
+
+    /**
+     * Marker of a player, which remembers the player position and caption
+     * information last used, so that the marker is only updated when these change
+     */
+    private static final class PlayerMarker {
+        public final MapMarker marker;
+        public boolean seen = false;
+        private double x = Double.NaN, y = Double.NaN, z = Double.NaN;
+        public double screenX = Double.NaN, screenY = Double.NaN;
+        private double fromX = Double.NaN, fromY = Double.NaN;
+        private double shownX = Double.NaN, shownY = Double.NaN;
+        private int captionBlockX, captionBlockY, captionBlockZ;
+        private String captionName = null;
+        private int captionVersion = -1;
+
+        public PlayerMarker(MapMarker marker) {
+            this.marker = marker;
+        }
+
+        public boolean isSamePosition(PlayerPositionSnapshot.Entry pos) {
+            return this.x == pos.x && this.y == pos.y && this.z == pos.z;
+        }
+
+        public void setPosition(PlayerPositionSnapshot.Entry pos, double screenX, double screenY, boolean smooth) {
+            this.x = pos.x;
+            this.y = pos.y;
+            this.z = pos.z;
+            this.screenX = screenX;
+            this.screenY = screenY;
+            if (smooth && !Double.isNaN(this.shownX)) {
+                // Move there smoothly starting from where the marker is now
+                this.fromX = this.shownX;
+                this.fromY = this.shownY;
+            } else if (this.shownX != screenX || this.shownY != screenY) {
+                this.fromX = this.shownX = screenX;
+                this.fromY = this.shownY = screenY;
+                this.marker.setPosition(screenX, screenY);
+            }
+        }
+
+        public boolean interpolate(double theta) {
+            if (this.shownX != this.screenX || this.shownY != this.screenY) {
+                this.shownX = this.fromX + theta * (this.screenX - this.fromX);
+                this.shownY = this.fromY + theta * (this.screenY - this.fromY);
+                this.marker.setPosition(this.shownX, this.shownY);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Moves the marker to the position it is moving towards right away
+         */
+        public void finishMove() {
+            if (!Double.isNaN(this.screenX) && (this.shownX != this.screenX || this.shownY != this.screenY)) {
+                this.fromX = this.shownX = this.screenX;
+                this.fromY = this.shownY = this.screenY;
+                this.marker.setPosition(this.screenX, this.screenY);
+            }
+        }
+
+        public void resetPosition() {
+            this.x = this.y = this.z = Double.NaN;
+        }
+
+        public boolean isCaptionChanged(PlayerPositionSnapshot.Entry pos, String name, int version) {
+            if (this.captionVersion == version &&
+                this.captionBlockX == pos.blockX &&
+                this.captionBlockY == pos.blockY &&
+                this.captionBlockZ == pos.blockZ &&
+                Objects.equals(this.captionName, name))
+            {
+                return false;
+            }
+            this.captionVersion = version;
+            this.captionBlockX = pos.blockX;
+            this.captionBlockY = pos.blockY;
+            this.captionBlockZ = pos.blockZ;
+            this.captionName = name;
+            return true;
+        }
+    }
 }
@@ -7,6 +7,7 @@ import org.bukkit.util.Vector;
 
 import com.bergerkiller.bukkit.common.map.MapMarker;
 import com.bergerkiller.bukkit.common.nbt.CommonTagCompound;
+import com.bergerkiller.bukkit.maplands.MapProjection;
 
 /**
  * A single static map marker
@@ -53,7 +54,7 @@ public class MapStaticMarker {
      * @param marker
      */
     public void applyProperties(MapMarker marker) {
-        marker.setVisible(this.type != null);
+        marker.setVisible(this.type != null && !markers.isClustered(marker));
         if (this.type != null) {
             marker.setType(this.type);
         }
@@ -80,21 +81,48 @@ public class MapStaticMarker {
         }
     }
 
+    /**
+     * Updates the marker shown on the display after the properties of this marker
+     * changed, and schedules the markers to be saved.
+     */
     public void update() {
+        markers.refreshStaticMarker(this);
+        markers.markDirty();
+    }
+
+    /**
+     * Updates the position and appearance of the marker shown on the display.
+     * Does not save anything, only to be used when the view of the display changes.
+     * If the marker is outside of the display, it is removed from the display.
+     *
+     * @return True if the marker is shown on the display, False if it is outside
+     */
+    public boolean refresh() {
+        MapProjection.Point position = markers.project(this.position);
+        if (!position.isWithin(markers.getDisplay().getWidth(), markers.getDisplay().getHeight())) {
+            hide();
+            return false;
+        }
+
         MapMarker marker = markers.getDisplay().getMarker(this.id);
         if (marker == null) {
             marker = markers.getDisplay().createMarker(this.id);
         }
-        Vector position = markers.getDisplay().getScreenCoordinates(this.position);
-        marker.setPosition(position.getX(), position.getY());
+        marker.setPosition(position.x, position.y);
 
-        if (markers.isHiddenInFirstTile() && position.getX() < 128.0 && position.getY() < 128.0) {
+        if (markers.isHiddenInFirstTile() && position.x < 128.0 && position.y < 128.0) {
             marker.setVisible(false);
         } else {
             applyProperties(marker);
         }
+        return true;
+    }
 
-        markers.save();
+    /**
+     * Removes the marker from the display, without removing this static marker
+     */
+    public void hide() {
+        markers.getDisplay().removeMarker(this.id);
     }
 
     public void remove() {
@@ -0,0 +1,88 @@
+package com.bergerkiller.bukkit.maplands.markers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import com.bergerkiller.bukkit.common.utils.MathUtil;
+import com.bergerkiller.bukkit.maplands.MapBlockBounds;
+
+/**
+ * Spatial index of static markers by the chunk column of their world position.
+ * Used to quickly find the markers that could be visible on a display.
+ */
+public class MapStaticMarkerIndex {
+    private final Map<Long, List<MapStaticMarker>> cells = new HashMap<Long, List<MapStaticMarker>>();
+
+    public void add(MapStaticMarker marker) {
+        cells.computeIfAbsent(cellKey(marker), k -> new ArrayList<MapStaticMarker>(2)).add(marker);
+    }
+
+    public void remove(MapStaticMarker marker) {
+        Long key = cellKey(marker);
+        List<MapStaticMarker> cell = cells.get(key);
+        if (cell != null && cell.remove(marker) && cell.isEmpty()) {
+            cells.remove(key);
+        }
+    }
+
+    public void clear() {
+        cells.clear();
+    }
+
+    /**
+     * Calls an action for all static markers whose x/z block coordinates are within
+     * block bounds. The y-coordinate is not checked, as markers above or below the
+     * rendered area can still be displayed.
+     *
+     * @param bounds Block bounds
+     * @param action Action to call for each marker within the bounds
+     */
+    public void forEachWithin(MapBlockBounds bounds, Consumer<MapStaticMarker> action) {
+        int minCX = MathUtil.toChunk(bounds.getMinX());
+        int maxCX = MathUtil.toChunk(bounds.getMaxX());
+        int minCZ = MathUtil.toChunk(bounds.getMinZ());
+        int maxCZ = MathUtil.toChunk(bounds.getMaxZ());
+        long numCells = (long) (maxCX - minCX + 1) * (long) (maxCZ - minCZ + 1);
+        if (numCells > cells.size()) {
+            // Fewer cells with markers than cells in the bounds, check all of them
+            for (Map.Entry<Long, List<MapStaticMarker>> cell : cells.entrySet()) {
+                long key = cell.getKey().longValue();
+                int cx = (int) (key >> 32);
+                int cz = (int) key;
+                if (cx >= minCX && cx <= maxCX && cz >= minCZ && cz <= maxCZ) {
+                    forEachWithin(cell.getValue(), bounds, action);
+                }
+            }
+        } else {
+            for (int cz = minCZ; cz <= maxCZ; cz++) {
+                for (int cx = minCX; cx <= maxCX; cx++) {
+                    List<MapStaticMarker> cell = cells.get(cellKey(cx, cz));
+                    if (cell != null) {
+                        forEachWithin(cell, bounds, action);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void forEachWithin(List<MapStaticMarker> cell, MapBlockBounds bounds, Consumer<MapStaticMarker> action) {
+        for (MapStaticMarker marker : cell) {
+            int bx = marker.position.getBlockX();
+            int bz = marker.position.getBlockZ();
+            if (bx >= bounds.getMinX() && bx <= bounds.getMaxX() && bz >= bounds.getMinZ() && bz <= bounds.getMaxZ()) {
+                action.accept(marker);
+            }
+        }
+    }
+
+    private static Long cellKey(MapStaticMarker marker) {
+        return cellKey(MathUtil.toChunk(marker.position.getBlockX()), MathUtil.toChunk(marker.position.getBlockZ()));
+    }
+
+    private static Long cellKey(int cx, int cz) {
+        return Long.valueOf(((long) cx << 32) | ((long) cz & 0xFFFFFFFFL));
+    }
+}
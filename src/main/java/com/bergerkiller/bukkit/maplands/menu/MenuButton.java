@@ -1,10 +1,15 @@
 package com.bergerkiller.bukkit.maplands.menu;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import com.bergerkiller.bukkit.common.map.MapColorPalette;
 import com.bergerkiller.bukkit.common.map.MapDisplay;
 import com.bergerkiller.bukkit.common.map.MapTexture;
 
 public class MenuButton {
+    // Textures are shared by the buttons of all displays, and are never changed after loading
+    private static final Map<String, MapTexture[]> textureCache = new HashMap<String, MapTexture[]>();
     private final int x, y;
     private final MapTexture texture_on;
     private final MapTexture texture_off;
@@ -22,12 +27,24 @@ public class MenuButton {
         this.changed = false;
         this.blinkCtr = 0;
 
-        MapTexture texture_base = MapTexture.loadResource(MenuButton.class, "/com/bergerkiller/bukkit/maplands/textures/" + textureName + ".png");
+        MapTexture[] textures = getTextures(textureName);
+        this.texture_on = textures[0];
+        this.texture_off = textures[1];
+    }
+
+    private static MapTexture[] getTextures(String textureName) {
+        MapTexture[] textures = textureCache.get(textureName);
+        if (textures == null) {
+            MapTexture texture_base = MapTexture.loadResource(MenuButton.class, "/com/bergerkiller/bukkit/maplands/textures/" + textureName + ".png");
 
-        this.texture_off = MapTexture.createEmpty(texture_base.getWidth(), texture_base.getHeight());
-        this.texture_on = MapTexture.createEmpty(texture_base.getWidth(), texture_base.getHeight());
-        this.texture_on.draw(texture_base, 0, 0, MapColorPalette.COLOR_YELLOW);
-        this.texture_off.draw(texture_base, 0, 0, MapColorPalette.COLOR_BLACK);
+            MapTexture texture_on = MapTexture.createEmpty(texture_base.getWidth(), texture_base.getHeight());
+            MapTexture texture_off = MapTexture.createEmpty(texture_base.getWidth(), texture_base.getHeight());
+            texture_on.draw(texture_base, 0, 0, MapColorPalette.COLOR_YELLOW);
+            texture_off.draw(texture_base, 0, 0, MapColorPalette.COLOR_BLACK);
+            textures = new MapTexture[] { texture_on, texture_off };
+            textureCache.put(textureName, textures);
+        }
+        return textures;
     }
 
     public void setDisplay(MapDisplay display) {
@@ -4,6 +4,7 @@ import com.bergerkiller.bukkit.common.events.map.MapKeyEvent;
 import com.bergerkiller.bukkit.common.map.MapPlayerInput;
 import com.bergerkiller.bukkit.common.map.MapPlayerInput.Key;
 import com.bergerkiller.bukkit.common.map.widgets.MapWidgetButton;
+import com.bergerkiller.bukkit.common.map.widgets.MapWidgetSubmitText;
 import com.bergerkiller.bukkit.common.map.widgets.MapWidgetWindow;
 import com.bergerkiller.bukkit.common.resources.SoundEffect;
 import com.bergerkiller.bukkit.maplands.MaplandsDisplay;
@@ -12,6 +13,8 @@ import com.bergerkiller.bukkit.maplands.MaplandsDisplay;
  * Main menu of the map display
  */
 public class SettingsMenu extends MapWidgetWindow {
+    private MapWidgetButton clipMinYButton, clipMaxYButton;
+    private MapWidgetSubmitText clipMinYSubmitText, clipMaxYSubmitText;
 
     public SettingsMenu() {
         this.setFocusable(true);
@@ -70,6 +73,98 @@ public class SettingsMenu extends MapWidgetWindow {
             }
         }).setText("Render Command")
           .setBounds(7, 53, 100, 15);
+
+        // Cycle through the number of see-through blocks shown
+        this.addWidget(new MapWidgetButton() {
+            private final int[] limits = new int[] { 0, 1, 2, 4, 8 };
+
+            @Override
+            public void onAttached() {
+                super.onAttached();
+                updateText();
+            }
+
+            @Override
+            public void onActivate() {
+                int index = 0;
+                while (index < limits.length && limits[index] != maplands_display.getSeeThroughLimit()) {
+                    index++;
+                }
+                maplands_display.setSeeThroughLimit(limits[(index + 1) % limits.length]);
+                updateText();
+                display.playSound(SoundEffect.CLICK);
+            }
+
+            private void updateText() {
+                int limit = maplands_display.getSeeThroughLimit();
+                this.setText("See-through: " + ((limit == 0) ? "ALL" : Integer.toString(limit)));
+            }
+        }).setBounds(7, 70, 100, 15);
+
+        // Only render the blocks in between a minimum and maximum y-coordinate
+        // The coordinates are entered in an anvil menu
+        clipMinYButton = this.addWidget(new MapWidgetButton() {
+            @Override
+            public void onActivate() {
+                clipMinYSubmitText.activate();
+            }
+        });
+        clipMinYButton.setBounds(7, 87, 49, 15);
+
+        clipMaxYButton = this.addWidget(new MapWidgetButton() {
+            @Override
+            public void onActivate() {
+                clipMaxYSubmitText.activate();
+            }
+        });
+        clipMaxYButton.setBounds(58, 87, 49, 15);
+
+        clipMinYSubmitText = this.addWidget(new MapWidgetSubmitText() {
+            @Override
+            public void onAccept(String text) {
+                if (isValidY(text)) {
+                    maplands_display.setClipMinY(parseY(text));
+                    updateClipText(maplands_display);
+                }
+            }
+
+            @Override
+            public void onCancel() {
+            }
+        }).setDescription("Lowest Y rendered, empty for all");
+
+        clipMaxYSubmitText = this.addWidget(new MapWidgetSubmitText() {
+            @Override
+            public void onAccept(String text) {
+                if (isValidY(text)) {
+                    maplands_display.setClipMaxY(parseY(text));
+                    updateClipText(maplands_display);
+                }
+            }
+
+            @Override
+            public void onCancel() {
+            }
+        }).setDescription("Highest Y rendered, empty for all");
+
+        updateClipText(maplands_display);
+    }
+
+    private void updateClipText(MaplandsDisplay maplands_display) {
+        clipMinYButton.setText("Min " + maplands_display.getMinRenderY());
+        clipMaxYButton.setText("Max " + (maplands_display.getMaxRenderY() - 1));
+    }
+
+    private static boolean isValidY(String text) {
+        return parseY(text) != null || text.trim().isEmpty();
+    }
+
+    private static Integer parseY(String text) {
+        try {
+            return Integer.valueOf(text.trim());
+        } catch (NumberFormatException ex) {
+            return null;
+        }
     }
 
     @Override
@@ -1,5 +1,6 @@
 package com.bergerkiller.bukkit.maplands.util;
 
+import java.util.BitSet;
 import java.util.NoSuchElementException;
 
 /**
@@ -110,6 +111,40 @@ public class Linked2DTileSet {
         Linked2DTile.link(current[2], this._depths[2].tail);
     }
 
+    /**
+     * Sets this set to contain exactly the tiles stored in a BitSet
+     * previously produced by {@link #toBitSet()}. Tiles not in the
+     * BitSet are cleared.
+     *
+     * @param bits BitSet of the tiles to set
+     */
+    public void setAll(BitSet bits) {
+        Linked2DTile[] current = new Linked2DTile[] {
+                this._depths[0].head,
+                this._depths[1].head,
+                this._depths[2].head
+        };
+
+        for (int index = 0; index < this._tiles.length; index++) {
+            Linked2DTile tile = this._tiles[index];
+            if (tile == null) {
+                continue;
+            } else if (bits.get(index)) {
+                int depth = tile.getDepthModThree();
+                Linked2DTile.link(current[depth], tile);
+                current[depth] = tile;
+            } else {
+                tile.prev = null;
+                tile.next = null;
+            }
+        }
+
+        // Connect to tail
+        Linked2DTile.link(current[0], this._depths[0].tail);
+        Linked2DTile.link(current[1], this._depths[1].tail);
+        Linked2DTile.link(current[2], this._depths[2].tail);
+    }
+
     /**
      * Clears this entire set, setting it to contain no tiles at all (empty)
      */
@@ -128,6 +163,24 @@ public class Linked2DTileSet {
         }
     }
 
+    /**
+     * Stores which tiles are set in a BitSet. The bit index is the
+     * position of the tile in this set, row by row. Only sets with the
+     * same x/y range can restore from it using {@link #setAll(BitSet)}.
+     *
+     * @return BitSet of the tiles that are set
+     */
+    public BitSet toBitSet() {
+        BitSet bits = new BitSet(this._tiles.length);
+        for (int index = 0; index < this._tiles.length; index++) {
+            Linked2DTile tile = this._tiles[index];
+            if (tile != null && tile.isSet()) {
+                bits.set(index);
+            }
+        }
+        return bits;
+    }
+
     /**
      * Gets whether a tile is set
      * @param x X-coordinate of the tile
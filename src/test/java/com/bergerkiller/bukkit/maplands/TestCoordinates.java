@@ -2,12 +2,16 @@ package com.bergerkiller.bukkit.maplands;
 
 import static org.junit.Assert.*;
 
+import java.util.Random;
+
 import org.bukkit.block.BlockFace;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import com.bergerkiller.bukkit.common.bases.IntVector3;
+import com.bergerkiller.bukkit.common.math.Vector2;
 import com.bergerkiller.bukkit.common.utils.LogicUtil;
+import com.bergerkiller.bukkit.common.utils.MathUtil;
 
 public class TestCoordinates {
 
@@ -53,6 +57,39 @@ public class TestCoordinates {
         }
     }
 
+    @Test
+    public void testProjection() {
+        // Tests the projection gives the same result as going through the tile coordinates
+        BlockFace[] faces = { BlockFace.NORTH_EAST, BlockFace.SOUTH_WEST, BlockFace.NORTH_WEST, BlockFace.SOUTH_EAST };
+        Random random = new Random(1234);
+        for (BlockFace facing : faces) {
+            for (ZoomLevel zoom : ZoomLevel.values()) {
+                MapProjection projection = new MapProjection(facing, zoom, 100, 64, -200, 256, 128);
+                MapProjection.Point point = new MapProjection.Point();
+                for (int n = 0; n < 1000; n++) {
+                    double x = 100 + 80.0 * (random.nextDouble() - 0.5);
+                    double y = 64 + 80.0 * (random.nextDouble() - 0.5);
+                    double z = -200 + 80.0 * (random.nextDouble() - 0.5);
+                    int bx = MathUtil.floor(x), by = MathUtil.floor(y), bz = MathUtil.floor(z);
+                    IntVector3 tile = MapUtil.blockToScreenTile(facing, bx - 100, by - 64, bz + 200);
+                    Vector2 inBlock = zoom.getBlockPixelCoordinates(facing, x - bx - 0.5, y - by - 0.5, z - bz - 0.5);
+                    double sx = zoom.getScreenX(tile.x) + 128 + inBlock.x;
+                    double sy = zoom.getScreenY(tile.y) + 64 + inBlock.y;
+
+                    projection.project(x, y, z, point);
+                    assertEquals(sx, point.x, 1e-6);
+                    assertEquals(sy, point.y, 1e-6);
+                    assertEquals(tile.z, point.depth);
+
+                    double[] screen = new double[2];
+                    projection.projectAll(new double[] { x, y, z }, screen, 1);
+                    assertEquals(sx, screen[0], 1e-6);
+                    assertEquals(sy, screen[1], 1e-6);
+                }
+            }
+        }
+    }
+
     @Ignore
     @Test
     public void testCoordinates() {
@@ -186,6 +186,41 @@ public class TestLinked2DTileSet {
         }
     }
 
+    @Test
+    public void testBitSetRestore() {
+        Linked2DTileSet set = new Linked2DTileSet(-100, 100, -100, 100);
+        for (int y = -100; y <= 100; y++) {
+            for (int x = -100; x <= 100; x++) {
+                if ((x + y) % 7 == 0) {
+                    set.set(x, y);
+                }
+            }
+        }
+
+        // Restore into a set that has every tile set, which must clear the others
+        Linked2DTileSet restored = new Linked2DTileSet(-100, 100, -100, 100);
+        restored.setAll();
+        restored.setAll(set.toBitSet());
+        for (int y = -100; y <= 100; y++) {
+            for (int x = -100; x <= 100; x++) {
+                assertEquals(set.contains(x, y), restored.contains(x, y));
+            }
+        }
+
+        // Verify the linked lists are still in row order
+        for (int depth : new int[] {0, 1, 2}) {
+            Linked2DTile a = set.getValidTiles(depth).head.next;
+            Linked2DTile b = restored.getValidTiles(depth).head.next;
+            while (a != set.getValidTiles(depth).tail) {
+                assertEquals(a.x, b.x);
+                assertEquals(a.y, b.y);
+                a = a.next;
+                b = b.next;
+            }
+            assertEquals(restored.getValidTiles(depth).tail, b);
+        }
+    }
+
     @Test
     public void testInverseIterator() {
         Linked2DTileSet set = new Linked2DTileSet(-100, 100, -100, 100);
@@ -0,0 +1,73 @@
+package com.bergerkiller.bukkit.maplands;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link MapRenderBudget}
+ */
+public class TestMapRenderBudget {
+
+    @Test
+    public void testGrowsWhileHealthy() {
+        MapRenderBudget budget = new MapRenderBudget(2, 10, 25, 45);
+        assertEquals(2.0, budget.getBudget(), 1e-9);
+        for (int i = 0; i < 1000; i++) {
+            budget.update(50.0, -1.0);
+        }
+        assertEquals(25.0, budget.getBudget(), 1e-9);
+        assertEquals(10.0, budget.getDisplayBudget(), 1e-9);
+    }
+
+    @Test
+    public void testBacksOffUnderLoad() {
+        MapRenderBudget budget = new MapRenderBudget(2, 50, 25, 45);
+        for (int i = 0; i < 1000; i++) {
+            budget.update(50.0, 30.0);
+        }
+        assertEquals(25.0, budget.getBudget(), 1e-9);
+
+        // Reported tick time above the target
+        for (int i = 0; i < 1000; i++) {
+            budget.update(50.0, 48.0);
+        }
+        assertEquals(2.0, budget.getBudget(), 1e-9);
+
+        // Server no longer keeps up with 20 ticks per second
+        budget = new MapRenderBudget(2, 50, 25, 45);
+        for (int i = 0; i < 1000; i++) {
+            budget.update(50.0, -1.0);
+        }
+        for (int i = 0; i < 1000; i++) {
+            budget.update(70.0, -1.0);
+        }
+        assertEquals(2.0, budget.getBudget(), 1e-9);
+    }
+
+    @Test
+    public void testSharedBetweenDisplays() {
+        MapRenderBudget budget = new MapRenderBudget(2, 50, 20, 45);
+        for (int i = 0; i < 1000; i++) {
+            budget.update(50.0, -1.0);
+        }
+        for (int i = 0; i < 4; i++) {
+            budget.startRender(System.nanoTime());
+        }
+        budget.update(50.0, -1.0);
+        assertEquals(5.0, budget.getDisplayBudget(), 1e-9);
+    }
+
+    @Test
+    public void testTotalLimitedByBudget() {
+        // While busy, displays together may not render longer than the current budget
+        MapRenderBudget budget = new MapRenderBudget(2, 50, 25, 45);
+        assertEquals(2000000L, budget.startRender(0L));
+        budget.finishRender(System.nanoTime() - 3000000L);
+        assertEquals(0L, budget.startRender(0L));
+
+        // Next tick the budget is available again
+        budget.update(50.0, 48.0);
+        assertEquals(1000000L, budget.startRender(0L));
+    }
+}
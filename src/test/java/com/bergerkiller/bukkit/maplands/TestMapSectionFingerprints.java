@@ -0,0 +1,104 @@
+package com.bergerkiller.bukkit.maplands;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.bukkit.block.BlockFace;
+import org.junit.Test;
+
+import com.bergerkiller.bukkit.common.bases.IntVector3;
+
+/**
+ * Tests the {@link MapSectionFingerprints}
+ */
+public class TestMapSectionFingerprints {
+
+    private static MapSectionFingerprints createFingerprints() {
+        MapBlockBounds bounds = new MapBlockBounds();
+        bounds.update(BlockFace.NORTH_EAST, -20, -60, -20, 20, 60, 20);
+        return new MapSectionFingerprints("world", bounds);
+    }
+
+    @Test
+    public void testSectionIndices() {
+        MapSectionFingerprints fingerprints = createFingerprints();
+        assertTrue(fingerprints.getSectionCount() > 1);
+
+        // Every section is covered exactly once, within the section bounds
+        Set<IntVector3> sections = new HashSet<IntVector3>();
+        for (int index = 0; index < fingerprints.getSectionCount(); index++) {
+            int sx = fingerprints.getSectionX(index);
+            int sy = fingerprints.getSectionY(index);
+            int sz = fingerprints.getSectionZ(index);
+            assertTrue(sx >= fingerprints.minX && sx <= fingerprints.maxX);
+            assertTrue(sy >= fingerprints.minY && sy <= fingerprints.maxY);
+            assertTrue(sz >= fingerprints.minZ && sz <= fingerprints.maxZ);
+            assertTrue(sections.add(new IntVector3(sx, sy, sz)));
+        }
+        assertEquals((fingerprints.maxX - fingerprints.minX + 1) *
+                     (fingerprints.maxY - fingerprints.minY + 1) *
+                     (fingerprints.maxZ - fingerprints.minZ + 1), sections.size());
+
+        // Marking a block changed only clears the section it is in
+        for (int index = 0; index < fingerprints.getSectionCount(); index++) {
+            fingerprints.setHash(index, index);
+        }
+        assertEquals(0, fingerprints.getNextComputed(0));
+        for (int index = 0; index < fingerprints.getSectionCount(); index++) {
+            int bx = (fingerprints.getSectionX(index) << 4) + 15;
+            int by = (fingerprints.getSectionY(index) << 4) + 7;
+            int bz = (fingerprints.getSectionZ(index) << 4);
+            assertEquals(index, fingerprints.getIndex(bx, by, bz));
+            fingerprints.markChanged(bx, by, bz);
+            assertFalse(fingerprints.isComputed(index));
+            assertEquals((index + 1) < fingerprints.getSectionCount() ? (index + 1) : -1,
+                         fingerprints.getNextComputed(index));
+            fingerprints.setHash(index, index);
+        }
+
+        // Blocks outside of the bounds are ignored
+        assertEquals(-1, fingerprints.getIndex((fingerprints.maxX + 1) << 4, fingerprints.minY << 4, fingerprints.minZ << 4));
+        assertEquals(-1, fingerprints.getIndex(fingerprints.minX << 4, (fingerprints.minY << 4) - 1, fingerprints.minZ << 4));
+        fingerprints.markChanged((fingerprints.maxX + 1) << 4, fingerprints.minY << 4, fingerprints.minZ << 4);
+        fingerprints.markChanged(fingerprints.minX << 4, (fingerprints.minY << 4) - 1, fingerprints.minZ << 4);
+        for (int index = 0; index < fingerprints.getSectionCount(); index++) {
+            assertTrue(fingerprints.isComputed(index));
+        }
+        assertEquals(-1, fingerprints.getNextComputed(fingerprints.getSectionCount()));
+    }
+
+    @Test
+    public void testReadWrite() throws IOException {
+        MapSectionFingerprints fingerprints = createFingerprints();
+        for (int index = 0; index < fingerprints.getSectionCount(); index += 3) {
+            fingerprints.setHash(index, index * 31 - 7);
+        }
+        fingerprints.markIncomplete();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream stream = new DataOutputStream(bytes)) {
+            fingerprints.write(stream);
+        }
+        MapSectionFingerprints read;
+        try (DataInputStream stream = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read = MapSectionFingerprints.read(stream);
+        }
+
+        assertNotNull(read);
+        assertTrue(read.isSameArea(fingerprints));
+        assertEquals(fingerprints.worldName, read.worldName);
+        assertEquals(fingerprints.getSectionCount(), read.getSectionCount());
+        assertFalse(read.isComplete());
+        for (int index = 0; index < fingerprints.getSectionCount(); index++) {
+            assertEquals(fingerprints.isComputed(index), read.isComputed(index));
+            assertEquals(fingerprints.getHash(index), read.getHash(index));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.bergerkiller.bukkit.maplands;
+
+import static org.junit.Assert.*;
+
+import org.bukkit.block.BlockFace;
+import org.junit.Test;
+
+import com.bergerkiller.bukkit.common.bases.IntVector3;
+
+/**
+ * Tests the {@link MapSectionVisibility}
+ */
+public class TestMapSectionVisibility {
+
+    @Test
+    public void testOccludersInFront() {
+        // The blocks hiding a block must be drawn at a lower depth, so before it
+        for (BlockFace facing : new BlockFace[] { BlockFace.NORTH_EAST, BlockFace.NORTH_WEST,
+                                                  BlockFace.SOUTH_EAST, BlockFace.SOUTH_WEST })
+        {
+            MapSectionVisibility visibility = new MapSectionVisibility(facing);
+            IntVector3 origin = MapUtil.blockToScreenTile(facing, 0, 0, 0);
+            assertEquals(3, visibility.getOccluderCount());
+            for (int i = 0; i < visibility.getOccluderCount(); i++) {
+                IntVector3 block = visibility.getOccluder(i);
+                IntVector3 tile = MapUtil.blockToScreenTile(facing, block.x, block.y, block.z);
+                assertEquals(new IntVector3(tile.x - origin.x, tile.y - origin.y, tile.z - origin.z),
+                             visibility.getOccluderTile(i));
+                assertEquals(-1, visibility.getOccluderTile(i).z);
+            }
+        }
+    }
+
+    @Test
+    public void testMarkChanged() {
+        MapSectionVisibility visibility = new MapSectionVisibility(BlockFace.NORTH_EAST);
+        assertEquals(MapSectionVisibility.UNKNOWN, visibility.get(15, 64, -1));
+        visibility.set(15, 64, -1, true);
+        visibility.set(16, 64, -1, false);
+        visibility.set(15, 63, -1, true);
+        visibility.set(20, 64, -1, true);
+        assertEquals(MapSectionVisibility.HIDDEN, visibility.get(15, 64, -1));
+        assertEquals(MapSectionVisibility.VISIBLE, visibility.get(16, 64, -1));
+
+        // Changing a block forgets the block itself and the blocks behind it
+        visibility.markChanged(15, 64, -1);
+        assertEquals(MapSectionVisibility.UNKNOWN, visibility.get(15, 64, -1));
+        assertEquals(MapSectionVisibility.UNKNOWN, visibility.get(16, 64, -1));
+        assertEquals(MapSectionVisibility.UNKNOWN, visibility.get(15, 63, -1));
+        assertEquals(MapSectionVisibility.HIDDEN, visibility.get(20, 64, -1));
+
+        visibility.clear();
+        assertEquals(MapSectionVisibility.UNKNOWN, visibility.get(20, 64, -1));
+    }
+
+    @Test
+    public void testMarkSectionChanged() {
+        MapSectionVisibility visibility = new MapSectionVisibility(BlockFace.NORTH_EAST);
+        visibility.set(15, 64, -1, true);
+        visibility.set(16, 64, -1, false);
+        visibility.set(15, 63, -1, true);
+        visibility.set(-1, 64, -1, true);
+
+        // Changing a section forgets the section itself and the sections behind it
+        visibility.markSectionChanged(0, 4, -1);
+        assertEquals(MapSectionVisibility.UNKNOWN, visibility.get(15, 64, -1));
+        assertEquals(MapSectionVisibility.UNKNOWN, visibility.get(16, 64, -1));
+        assertEquals(MapSectionVisibility.UNKNOWN, visibility.get(15, 63, -1));
+        assertEquals(MapSectionVisibility.HIDDEN, visibility.get(-1, 64, -1));
+    }
+
+    @Test
+    public void testCopy() {
+        MapSectionVisibility visibility = new MapSectionVisibility(BlockFace.NORTH_EAST);
+        visibility.set(15, 64, -1, true);
+        MapSectionVisibility copy = new MapSectionVisibility(visibility);
+        assertEquals(BlockFace.NORTH_EAST, copy.getFacing());
+        assertEquals(MapSectionVisibility.HIDDEN, copy.get(15, 64, -1));
+
+        // Changes made to the copy do not change the original
+        copy.markChanged(15, 64, -1);
+        assertEquals(MapSectionVisibility.UNKNOWN, copy.get(15, 64, -1));
+        assertEquals(MapSectionVisibility.HIDDEN, visibility.get(15, 64, -1));
+    }
+}
@@ -0,0 +1,101 @@
+package com.bergerkiller.bukkit.maplands;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link MapSeeThroughLayers}
+ */
+public class TestMapSeeThroughLayers {
+
+    @Test
+    public void testLimit() {
+        MapSeeThroughLayers layers = new MapSeeThroughLayers(4, 3);
+        assertFalse(layers.isLimitReached(1, 10));
+        layers.set(1, 10, true);
+        assertFalse(layers.isLimitReached(1, 11));
+        layers.set(1, 11, true);
+        assertTrue(layers.isLimitReached(1, 12));
+
+        // Other tiles are not affected
+        assertFalse(layers.isLimitReached(0, 12));
+        assertFalse(layers.isLimitReached(2, 12));
+
+        // Only the blocks in front count
+        assertFalse(layers.isLimitReached(1, 11));
+        assertEquals(1, layers.countInFront(1, 11));
+    }
+
+    @Test
+    public void testRedraw() {
+        MapSeeThroughLayers layers = new MapSeeThroughLayers(1, 4);
+        layers.set(0, 10, true);
+        layers.set(0, 20, true);
+        layers.set(0, 30, true);
+        assertEquals(3, layers.countInFront(0, 31));
+
+        // Redrawing a block in the middle keeps the blocks in front and behind it
+        layers.set(0, 20, false);
+        assertEquals(1, layers.countInFront(0, 20));
+        assertEquals(2, layers.countInFront(0, 31));
+        layers.set(0, 15, true);
+        assertEquals(3, layers.countInFront(0, 31));
+
+        // Drawing the same block again does not count it twice
+        layers.set(0, 15, true);
+        assertEquals(3, layers.countInFront(0, 31));
+
+        // When full, the block furthest back is forgotten
+        layers.set(0, 5, true);
+        assertEquals(3, layers.countInFront(0, 31));
+        assertEquals(2, layers.countInFront(0, 15));
+        assertTrue(layers.isLimitReached(0, 25));
+
+        layers.clear();
+        assertEquals(0, layers.countInFront(0, 31));
+    }
+
+    @Test
+    public void testCopy() {
+        MapSeeThroughLayers layers = new MapSeeThroughLayers(2, 2);
+        layers.set(1, 5, true);
+        MapSeeThroughLayers copy = new MapSeeThroughLayers(layers);
+        assertTrue(copy.isLimitReached(1, 6));
+        copy.set(1, 5, false);
+        assertFalse(copy.isLimitReached(1, 6));
+        assertTrue(layers.isLimitReached(1, 6));
+    }
+
+    @Test
+    public void testReadWrite() throws IOException {
+        MapSeeThroughLayers layers = new MapSeeThroughLayers(3, 4);
+        layers.set(0, -20, true);
+        layers.set(0, 15, true);
+        layers.set(2, 7, true);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream stream = new DataOutputStream(bytes)) {
+            layers.write(stream);
+        }
+        MapSeeThroughLayers read;
+        try (DataInputStream stream = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read = MapSeeThroughLayers.read(stream);
+        }
+
+        assertNotNull(read);
+        assertEquals(4, read.getLimit());
+        assertEquals(3, read.getTileCount());
+        assertEquals(0, read.countInFront(0, -20));
+        assertEquals(1, read.countInFront(0, 0));
+        assertEquals(2, read.countInFront(0, 16));
+        assertEquals(0, read.countInFront(1, 100));
+        assertEquals(1, read.countInFront(2, 8));
+    }
+}
@@ -0,0 +1,113 @@
+package com.bergerkiller.bukkit.maplands;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link WorldChangeJournal}
+ */
+public class TestWorldChangeJournal {
+
+    @Test
+    public void testPackCoordinates() {
+        for (int x : new int[] {0, 1, -1, 29999984, -29999984}) {
+            for (int y : new int[] {0, 1, -1, 255, -64, 2047, -2048}) {
+                for (int z : new int[] {0, 1, -1, 29999984, -29999984}) {
+                    long packed = WorldChangeJournal.pack(x, y, z);
+                    assertEquals(x, WorldChangeJournal.unpackX(packed));
+                    assertEquals(y, WorldChangeJournal.unpackY(packed));
+                    assertEquals(z, WorldChangeJournal.unpackZ(packed));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testChangesSince() {
+        WorldChangeJournal journal = new WorldChangeJournal(100);
+        journal.record("world", 1, 2, 3);
+        long sequence = journal.getSequence();
+        journal.record("world", 40, 5, -6);
+        journal.record("world_nether", 7, 8, 9);
+
+        List<Long> changes = new ArrayList<Long>();
+        assertTrue(journal.forEachChangeSince("world", sequence, changes::add));
+        assertEquals(1, changes.size());
+        assertEquals(WorldChangeJournal.pack(2, 0, -1), changes.get(0).longValue());
+
+        // Changing a block in the same section again should list the section again
+        journal.record("world", 4, 5, 6);
+        changes.clear();
+        assertTrue(journal.forEachChangeSince("world", sequence, changes::add));
+        assertEquals(2, changes.size());
+        assertEquals(WorldChangeJournal.pack(0, 0, 0), changes.get(1).longValue());
+    }
+
+    @Test
+    public void testSameSection() {
+        WorldChangeJournal journal = new WorldChangeJournal(1);
+        long sequence = journal.getSequence();
+        for (int i = 0; i < 16; i++) {
+            journal.record("world", i, 15 - i, i);
+        }
+
+        // All changes are in one section, so nothing is forgotten
+        List<Long> changes = new ArrayList<Long>();
+        assertTrue(journal.forEachChangeSince("world", sequence, changes::add));
+        assertEquals(1, changes.size());
+        assertEquals(WorldChangeJournal.pack(0, 0, 0), changes.get(0).longValue());
+
+        // Changes after a sequence number are still found
+        sequence = journal.getSequence();
+        changes.clear();
+        assertTrue(journal.forEachChangeSince("world", sequence, changes::add));
+        assertEquals(0, changes.size());
+        journal.record("world", 3, 3, 3);
+        assertTrue(journal.forEachChangeSince("world", sequence, changes::add));
+        assertEquals(1, changes.size());
+    }
+
+    @Test
+    public void testOverflow() {
+        WorldChangeJournal journal = new WorldChangeJournal(10);
+        long sequence = journal.getSequence();
+        for (int i = 0; i < 10; i++) {
+            journal.record("world", i * 16, 0, 0);
+        }
+        assertTrue(journal.forEachChangeSince("world", sequence, packed -> {}));
+
+        // One more change forgets the first one, which was not seen
+        journal.record("world", 160, 0, 0);
+        assertFalse(journal.forEachChangeSince("world", sequence, packed -> {}));
+        assertTrue(journal.forEachChangeSince("world", sequence + 1, packed -> {}));
+    }
+
+    @Test
+    public void testSaveLoad() throws IOException {
+        File file = File.createTempFile("journal", ".dat");
+        try {
+            WorldChangeJournal journal = new WorldChangeJournal(100);
+            journal.record("world", 1, 2, 3);
+            journal.save(file);
+
+            WorldChangeJournal loaded = new WorldChangeJournal(100);
+            loaded.load(file);
+            assertEquals(journal.getEpoch(), loaded.getEpoch());
+            assertEquals(journal.getSequence(), loaded.getSequence());
+
+            // The file is gone once loaded, so after a crash a new epoch is used
+            assertFalse(file.exists());
+            WorldChangeJournal afterCrash = new WorldChangeJournal(100);
+            afterCrash.load(file);
+            assertNotEquals(journal.getEpoch(), afterCrash.getEpoch());
+        } finally {
+            file.delete();
+        }
+    }
+}
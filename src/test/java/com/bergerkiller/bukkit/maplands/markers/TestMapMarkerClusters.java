@@ -0,0 +1,45 @@
+package com.bergerkiller.bukkit.maplands.markers;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link MapMarkerClusters}
+ */
+public class TestMapMarkerClusters {
+
+    @Test
+    public void testWithinRadius() {
+        MapMarkerClusters clusters = new MapMarkerClusters(null);
+        assertEquals(0, clusters.assign(50.0, 50.0, 10));
+        assertEquals(0, clusters.assign(56.0, 58.0, 10)); // exactly on the radius
+        assertEquals(0, clusters.assign(41.0, 50.0, 10));
+        assertEquals(1, clusters.assign(56.0, 58.1, 10)); // just outside the radius
+        assertEquals(2, clusters.assign(50.0, 70.0, 10));
+    }
+
+    @Test
+    public void testAcrossCells() {
+        // Markers close together, but in neighbouring grid cells, are merged
+        MapMarkerClusters clusters = new MapMarkerClusters(null);
+        assertEquals(0, clusters.assign(9.9, 9.9, 10));
+        assertEquals(0, clusters.assign(10.1, 10.1, 10));
+        assertEquals(0, clusters.assign(3.0, 5.0, 10));
+
+        // Negative coordinates round down to the cell below zero
+        assertEquals(1, clusters.assign(-9.0, 30.0, 10));
+        assertEquals(1, clusters.assign(0.5, 30.0, 10));
+    }
+
+    @Test
+    public void testFirstMarkerIsCenter() {
+        // Distance is measured from the first marker of a cluster, so a chain of
+        // markers spaced just within the radius does not become a single cluster
+        MapMarkerClusters clusters = new MapMarkerClusters(null);
+        assertEquals(0, clusters.assign(0.0, 0.0, 10));
+        assertEquals(0, clusters.assign(8.0, 0.0, 10));
+        assertEquals(1, clusters.assign(16.0, 0.0, 10));
+        assertEquals(1, clusters.assign(24.0, 0.0, 10));
+    }
+}